@@ -0,0 +1,182 @@
+// BatchRenderer.java
+package mapplotterproject;
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * BatchRenderer class
+ * Command line tool that renders PNG snapshots of the map without a display, e.g. one per city for
+ * incident reports on a server. It loads the data the same way the application does, but read-only,
+ * and draws with the application's FrameRenderer, so snapshots look like the map on screen.
+ *
+ * Snapshots are rendered in parallel. Renderers keep their drawing state to one thread, so every
+ * worker thread has its own.
+ *
+ * Usage: BatchRenderer [--out DIR] [--size WIDTHxHEIGHT] [--layers map,points,boundaries,names,grid,clusters,heatmap]
+ *                      [--threads N] [--city NAME]... [--viewport X,Y,WIDTH,HEIGHT]...
+ * Without --city or --viewport, every city with a boundary is rendered.
+ */
+public class BatchRenderer {
+    private static final Color BACKGROUND = new Color(238, 238, 238);
+
+    private Path outputDir = Paths.get("snapshots");
+    private int width = 1200, height = 900;
+    private int layers = Scene.MAP | Scene.POINTS | Scene.BOUNDARIES | Scene.NAMES;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private final List<String> cities = new ArrayList<>();
+    private final List<Rectangle> viewports = new ArrayList<>();
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        BatchRenderer renderer = new BatchRenderer();
+        try {
+            renderer.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Usage: BatchRenderer [--out DIR] [--size WIDTHxHEIGHT] [--layers map,points,boundaries,names,grid,clusters,heatmap]"
+                    + " [--threads N] [--city NAME]... [--viewport X,Y,WIDTH,HEIGHT]...");
+            System.exit(2);
+        }
+        try {
+            renderer.run();
+        } catch (IOException | ExecutionException | InvocationTargetException e) {
+            System.out.println("Error rendering snapshots.");
+            e.printStackTrace();
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Reads the command line options
+     * @param args Command line arguments
+     * @throws IllegalArgumentException If an option is unknown or malformed
+     */
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            try {
+                switch (option) {
+                    case "--out" -> outputDir = Paths.get(value);
+                    case "--size" -> {
+                        String[] size = value.toLowerCase(Locale.ROOT).split("x");
+                        width = Integer.parseInt(size[0]);
+                        height = Integer.parseInt(size[1]);
+                    }
+                    case "--layers" -> layers = Scene.layersOf(value);
+                    case "--threads" -> threads = Math.max(1, Integer.parseInt(value));
+                    case "--city" -> cities.add(value);
+                    case "--viewport" -> {
+                        int[] v = Arrays.stream(value.split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray();
+                        viewports.add(new Rectangle(v[0], v[1], v[2], v[3]));
+                    }
+                    default -> throw new IllegalArgumentException("Unknown option " + option);
+                }
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                throw new IllegalArgumentException("Malformed value for " + option + ": " + value);
+            }
+        }
+    }
+
+    /**
+     * Loads the map, renders every requested snapshot and prints throughput statistics
+     */
+    private void run() throws IOException, InterruptedException, ExecutionException, InvocationTargetException {
+        long start = System.nanoTime();
+        MapPlotter[] holder = new MapPlotter[1];
+        Map<String, Scene> scenes = new LinkedHashMap<>();
+        // The plotter is built and read on the EDT like in the application, but read-only, so rendering
+        // never changes the roster files of an application that may be running
+        SwingUtilities.invokeAndWait(() -> {
+            MapPlotter plotter = MapPlotter.openReadOnly();
+            holder[0] = plotter;
+            for (CityBoundary boundary : plotter.getCityBoundaries()) {
+                if (cities.isEmpty() && viewports.isEmpty() || cities.stream().anyMatch(c -> c.equalsIgnoreCase(boundary.getCityName()))) {
+                    scenes.put(fileNameOf(boundary.getCityName()), plotter.sceneFitting(boundary.getBounds(), width, height, layers));
+                }
+            }
+            for (Rectangle viewport : viewports) {
+                String name = String.format("viewport-%d-%d-%d-%d", viewport.x, viewport.y, viewport.width, viewport.height);
+                scenes.put(name, plotter.sceneFitting(viewport, width, height, layers));
+            }
+        });
+        MapPlotter plotter = holder[0];
+        double loadMillis = (System.nanoTime() - start) / 1e6;
+        Files.createDirectories(outputDir);
+
+        FrameStats stats = new FrameStats();
+        // Workers keep their own renderer but draw the base map from one tile cache
+        TiledImage mapTiles = plotter.createMapTiles();
+        ThreadLocal<FrameRenderer> renderers = ThreadLocal.withInitial(() -> plotter.createRenderer(mapTiles, stats));
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        long renderStart = System.nanoTime();
+        List<Future<long[]>> results = new ArrayList<>();
+        for (Map.Entry<String, Scene> entry : scenes.entrySet()) {
+            results.add(workers.submit(() -> {
+                long t0 = System.nanoTime();
+                BufferedImage image = renderers.get().renderImage(entry.getValue(), BACKGROUND);
+                long t1 = System.nanoTime();
+                ImageIO.write(image, "png", outputDir.resolve(entry.getKey() + ".png").toFile());
+                return new long[]{t1 - t0, System.nanoTime() - t1};
+            }));
+        }
+        long[] renderNanos = new long[results.size()], writeNanos = new long[results.size()];
+        for (int i = 0; i < results.size(); i++) {
+            long[] times = results.get(i).get();
+            renderNanos[i] = times[0];
+            writeNanos[i] = times[1];
+        }
+        workers.shutdown();
+        double seconds = (System.nanoTime() - renderStart) / 1e9;
+
+        System.out.printf("Loaded map in %.1f ms%n", loadMillis);
+        System.out.printf("Rendered %d snapshots of %dx%d to %s in %.2f s on %d threads: %.1f snapshots/s%n",
+                scenes.size(), width, height, outputDir, seconds, threads, scenes.size() / seconds);
+        System.out.printf("Render p50 %.1f ms p99 %.1f ms, PNG encode p50 %.1f ms p99 %.1f ms%n",
+                percentile(renderNanos, 50), percentile(renderNanos, 99), percentile(writeNanos, 50), percentile(writeNanos, 99));
+        System.out.println(stats.summary()[1]);
+    }
+
+    private static double percentile(long[] nanos, double percentile) {
+        if (nanos.length == 0) {
+            return 0;
+        }
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile / 100 * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * Turns a city name into a file name: lower case, with runs of other characters replaced by dashes
+     */
+    private static String fileNameOf(String cityName) {
+        String name = cityName.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", "-").replaceAll("^-|-$", "");
+        return name.isEmpty() ? "city" : name;
+    }
+}
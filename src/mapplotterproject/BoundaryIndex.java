@@ -0,0 +1,171 @@
+package mapplotterproject;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * BoundaryIndex class
+ * Static R-tree over bounding boxes, bulk-loaded with Sort-Tile-Recursive packing.
+ * Every entry is a box with an int value (e.g. a city id); queries report the values of the boxes
+ * that contain a point or intersect a rectangle, so only those candidates need an exact test.
+ * Nodes are stored in flat arrays, leaves first and the root last.
+ */
+public class BoundaryIndex {
+    private static final int NODE_CAPACITY = 16;
+
+    // Boxes of all nodes; inclusive bounds
+    private int[] minX, minY, maxX, maxY;
+    // Leaves hold a value; inner nodes hold the range of their children
+    private int[] value, firstChild, childCount;
+    private int nodeCount;
+    private final int root;
+
+    /**
+     * Builds the index
+     * @param boxes Bounding box of each entry
+     * @param values Value of each entry
+     */
+    public BoundaryIndex(Rectangle[] boxes, int[] values) {
+        int capacity = boxes.length * 2 + 1;
+        minX = new int[capacity];
+        minY = new int[capacity];
+        maxX = new int[capacity];
+        maxY = new int[capacity];
+        value = new int[capacity];
+        firstChild = new int[capacity];
+        childCount = new int[capacity];
+
+        int[] level = new int[boxes.length];
+        for (int i = 0; i < boxes.length; i++) {
+            Rectangle box = boxes[i];
+            level[i] = addNode(box.x, box.y, box.x + box.width, box.y + box.height, values[i], -1, 0);
+        }
+        if (level.length == 0) {
+            root = -1;
+            return;
+        }
+
+        // Pack each level into parents of up to NODE_CAPACITY consecutive nodes in STR order
+        while (true) {
+            int[] ordered = strOrder(level);
+            // Copy the level into STR order so each parent's children are contiguous
+            int start = nodeCount;
+            for (int node : ordered) {
+                copyNode(node);
+            }
+            if (ordered.length == 1) {
+                break;
+            }
+            int parents = (ordered.length + NODE_CAPACITY - 1) / NODE_CAPACITY;
+            int[] next = new int[parents];
+            for (int p = 0; p < parents; p++) {
+                int first = start + p * NODE_CAPACITY;
+                int count = Math.min(NODE_CAPACITY, ordered.length - p * NODE_CAPACITY);
+                int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE, x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+                for (int c = first; c < first + count; c++) {
+                    x0 = Math.min(x0, minX[c]);
+                    y0 = Math.min(y0, minY[c]);
+                    x1 = Math.max(x1, maxX[c]);
+                    y1 = Math.max(y1, maxY[c]);
+                }
+                next[p] = addNode(x0, y0, x1, y1, -1, first, count);
+            }
+            level = next;
+        }
+        root = nodeCount - 1;
+    }
+
+    private int addNode(int x0, int y0, int x1, int y1, int nodeValue, int first, int count) {
+        if (nodeCount == minX.length) {
+            int capacity = nodeCount * 2;
+            minX = Arrays.copyOf(minX, capacity);
+            minY = Arrays.copyOf(minY, capacity);
+            maxX = Arrays.copyOf(maxX, capacity);
+            maxY = Arrays.copyOf(maxY, capacity);
+            value = Arrays.copyOf(value, capacity);
+            firstChild = Arrays.copyOf(firstChild, capacity);
+            childCount = Arrays.copyOf(childCount, capacity);
+        }
+        int node = nodeCount++;
+        minX[node] = x0;
+        minY[node] = y0;
+        maxX[node] = x1;
+        maxY[node] = y1;
+        value[node] = nodeValue;
+        firstChild[node] = first;
+        childCount[node] = count;
+        return node;
+    }
+
+    private void copyNode(int node) {
+        addNode(minX[node], minY[node], maxX[node], maxY[node], value[node], firstChild[node], childCount[node]);
+    }
+
+    /**
+     * Sort-Tile-Recursive order: sort by center x, cut into vertical slices of whole nodes,
+     * then sort each slice by center y
+     */
+    private int[] strOrder(int[] nodes) {
+        Integer[] order = new Integer[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            order[i] = nodes[i];
+        }
+        Arrays.sort(order, (a, b) -> Long.compare((long) minX[a] + maxX[a], (long) minX[b] + maxX[b]));
+        int leaves = (nodes.length + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        int sliceSize = (int) Math.ceil(Math.sqrt(leaves)) * NODE_CAPACITY;
+        for (int start = 0; start < order.length; start += sliceSize) {
+            Arrays.sort(order, start, Math.min(order.length, start + sliceSize),
+                    (a, b) -> Long.compare((long) minY[a] + maxY[a], (long) minY[b] + maxY[b]));
+        }
+        int[] ordered = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            ordered[i] = order[i];
+        }
+        return ordered;
+    }
+
+    /**
+     * Reports the values of all entries whose box contains a point
+     * @param x X-coordinate
+     * @param y Y-coordinate
+     * @param consumer Receives the values
+     */
+    public void query(int x, int y, IntConsumer consumer) {
+        query(x, y, x, y, consumer);
+    }
+
+    /**
+     * Reports the values of all entries whose box intersects a rectangle
+     * @param area Rectangle to search
+     * @param consumer Receives the values
+     */
+    public void query(Rectangle area, IntConsumer consumer) {
+        query(area.x, area.y, area.x + area.width, area.y + area.height, consumer);
+    }
+
+    private void query(int x0, int y0, int x1, int y1, IntConsumer consumer) {
+        if (root < 0) {
+            return;
+        }
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int node = stack[--top];
+            if (minX[node] > x1 || maxX[node] < x0 || minY[node] > y1 || maxY[node] < y0) {
+                continue;
+            }
+            if (childCount[node] == 0) {
+                consumer.accept(value[node]);
+                continue;
+            }
+            if (top + childCount[node] > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2 + childCount[node]);
+            }
+            for (int c = firstChild[node]; c < firstChild[node] + childCount[node]; c++) {
+                stack[top++] = c;
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package mapplotterproject;
+
+import java.awt.Polygon;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * BoundaryLoader class
+ * Loads city boundaries from a GeoJSON FeatureCollection. Polygon and MultiPolygon geometries are
+ * supported, including holes; features with the same city name are merged into one city.
+ *
+ * Coordinates are map image pixels unless the collection has a "pixelTransform" member
+ * [a, b, c, d, e, f], which maps a coordinate (x, y) to the pixel (a*x + b*y + c, d*x + e*y + f),
+ * e.g. to place longitude/latitude data on the map image.
+ */
+public class BoundaryLoader {
+    // Feature properties that may hold the city name, in order of preference
+    private static final String[] NAME_PROPERTIES = {"name", "NAME", "city", "municipality", "ADM3_EN", "ADM4_EN"};
+
+    private BoundaryLoader() {
+    }
+
+    /**
+     * Loads and triangulates boundaries on a background thread
+     * @param path GeoJSON file
+     * @return Future of the boundaries, completing with null if the file does not exist
+     */
+    public static CompletableFuture<List<CityBoundary>> loadAsync(Path path) {
+        CompletableFuture<List<CityBoundary>> result = new CompletableFuture<>();
+        Thread loader = new Thread(() -> {
+            try {
+                result.complete(Files.exists(path) ? load(path) : null);
+            } catch (IOException | RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        }, "boundary-loader");
+        loader.setDaemon(true);
+        loader.start();
+        return result;
+    }
+
+    /**
+     * Loads boundaries from a GeoJSON file
+     * @param path GeoJSON file
+     * @return One boundary per city, in order of first appearance
+     * @throws IOException If the file cannot be read or is not a FeatureCollection
+     */
+    public static List<CityBoundary> load(Path path) throws IOException {
+        long start = System.nanoTime();
+        Object root = JsonReader.parse(Files.readString(path, StandardCharsets.UTF_8));
+        if (!(root instanceof Map) || !"FeatureCollection".equals(((Map<?, ?>) root).get("type"))) {
+            throw new IOException(path.getFileName() + " is not a GeoJSON FeatureCollection");
+        }
+        Map<?, ?> collection = (Map<?, ?>) root;
+        double[] transform = readTransform(collection.get("pixelTransform"));
+
+        // Parts and holes per normalized city name
+        Map<String, String> names = new LinkedHashMap<>();
+        Map<String, List<Polygon>> parts = new LinkedHashMap<>(), holes = new LinkedHashMap<>();
+        int skipped = 0;
+        for (Object feature : asList(collection.get("features"))) {
+            String name = featureName(feature);
+            Map<?, ?> geometry = feature instanceof Map ? asMap(((Map<?, ?>) feature).get("geometry")) : null;
+            if (name == null || geometry == null) {
+                skipped++;
+                continue;
+            }
+            String key = CityBoundaryManager.normalizeCityName(name);
+            names.putIfAbsent(key, name.trim());
+            List<Polygon> cityParts = parts.computeIfAbsent(key, k -> new ArrayList<>());
+            List<Polygon> cityHoles = holes.computeIfAbsent(key, k -> new ArrayList<>());
+
+            Object type = geometry.get("type");
+            List<Object> coordinates = asList(geometry.get("coordinates"));
+            if ("Polygon".equals(type)) {
+                addPolygon(coordinates, transform, cityParts, cityHoles);
+            } else if ("MultiPolygon".equals(type)) {
+                for (Object polygon : coordinates) {
+                    addPolygon(asList(polygon), transform, cityParts, cityHoles);
+                }
+            } else {
+                skipped++;
+            }
+        }
+
+        List<CityBoundary> boundaries = new ArrayList<>();
+        int vertices = 0;
+        for (Map.Entry<String, String> city : names.entrySet()) {
+            List<Polygon> cityParts = parts.get(city.getKey());
+            if (cityParts.isEmpty()) continue;
+            for (Polygon part : cityParts) vertices += part.npoints;
+            boundaries.add(new CityBoundary(city.getValue(), cityParts, holes.get(city.getKey())));
+        }
+        System.out.printf("Loaded %d city boundaries (%d vertices, %d features skipped) from %s in %.1f ms%n",
+                boundaries.size(), vertices, skipped, path.getFileName(), (System.nanoTime() - start) / 1e6);
+        return boundaries;
+    }
+
+    /**
+     * Adds a GeoJSON polygon: the first ring is the outline, the others are holes
+     */
+    private static void addPolygon(List<Object> rings, double[] transform, List<Polygon> parts, List<Polygon> holes) {
+        for (int i = 0; i < rings.size(); i++) {
+            Polygon ring = toPolygon(asList(rings.get(i)), transform);
+            if (ring.npoints < 3) continue;
+            (i == 0 ? parts : holes).add(ring);
+        }
+    }
+
+    /**
+     * Converts a ring of [x, y] positions to a pixel polygon, dropping repeated points and the
+     * closing position
+     */
+    private static Polygon toPolygon(List<Object> positions, double[] transform) {
+        Polygon polygon = new Polygon();
+        for (Object position : positions) {
+            List<Object> xy = asList(position);
+            if (xy.size() < 2) continue;
+            double x = ((Number) xy.get(0)).doubleValue(), y = ((Number) xy.get(1)).doubleValue();
+            int px = (int) Math.round(transform[0] * x + transform[1] * y + transform[2]);
+            int py = (int) Math.round(transform[3] * x + transform[4] * y + transform[5]);
+            int last = polygon.npoints - 1;
+            if (last >= 0 && polygon.xpoints[last] == px && polygon.ypoints[last] == py) continue;
+            polygon.addPoint(px, py);
+        }
+        if (polygon.npoints > 1 && polygon.xpoints[0] == polygon.xpoints[polygon.npoints - 1]
+                && polygon.ypoints[0] == polygon.ypoints[polygon.npoints - 1]) {
+            polygon.npoints--;
+        }
+        return polygon;
+    }
+
+    private static double[] readTransform(Object member) throws IOException {
+        if (member == null) {
+            return new double[]{1, 0, 0, 0, 1, 0};
+        }
+        List<Object> values = asList(member);
+        if (values.size() != 6) {
+            throw new IOException("pixelTransform must have 6 numbers");
+        }
+        double[] transform = new double[6];
+        for (int i = 0; i < 6; i++) {
+            transform[i] = ((Number) values.get(i)).doubleValue();
+        }
+        return transform;
+    }
+
+    private static String featureName(Object feature) {
+        if (!(feature instanceof Map)) return null;
+        Map<?, ?> properties = asMap(((Map<?, ?>) feature).get("properties"));
+        if (properties == null) return null;
+        for (String property : NAME_PROPERTIES) {
+            Object name = properties.get(property);
+            if (name instanceof String && !((String) name).isBlank()) return (String) name;
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Object> asList(Object value) {
+        return value instanceof List ? (List<Object>) value : List.of();
+    }
+
+    private static Map<?, ?> asMap(Object value) {
+        return value instanceof Map ? (Map<?, ?>) value : null;
+    }
+}
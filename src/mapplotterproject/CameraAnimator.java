@@ -0,0 +1,102 @@
+package mapplotterproject;
+
+import javax.swing.Timer;
+import java.awt.Component;
+
+/**
+ * CameraAnimator class
+ * Moves the view of a MapInteractionHandler to a target zoom and center over a fixed time.
+ * Progress comes from the clock rather than from counting timer ticks, so a slow frame does not
+ * slow the animation down, and the last frame lands exactly on the target. Zoom is interpolated
+ * in log space and the center in map coordinates, so the map zooms evenly around a moving point
+ * instead of swinging sideways.
+ *
+ * There is one timer. A new target while animating restarts from wherever the view is at that moment,
+ * and the ease-out curve keeps the motion going without a stop. Any other change to the view, such as
+ * the user dragging or zooming, cancels the animation.
+ */
+public class CameraAnimator {
+    private static final int DURATION_MILLIS = 450;
+    private static final int FRAME_MILLIS = 15;
+
+    private final MapInteractionHandler handler;
+    private final Component view;
+    private final Timer timer;
+
+    private long startNanos;
+    private double startScale, startCenterX, startCenterY;
+    private double targetScale, targetCenterX, targetCenterY;
+    // View as last set by the animator, to notice changes made by anything else
+    private double appliedScale;
+    private int appliedX, appliedY;
+
+    /**
+     * Constructor for CameraAnimator
+     * @param handler Handler holding the view's zoom and offset
+     * @param view Component showing the view; its size defines the center
+     */
+    public CameraAnimator(MapInteractionHandler handler, Component view) {
+        this.handler = handler;
+        this.view = view;
+        this.timer = new Timer(FRAME_MILLIS, e -> step());
+        this.timer.setCoalesce(true);
+    }
+
+    /**
+     * Animates the view to a zoom and center, or changes course if an animation is running
+     * @param scale Target zoom scale; clamped to the handler's range
+     * @param centerX Map x-coordinate to center on
+     * @param centerY Map y-coordinate to center on
+     */
+    public void animateTo(double scale, double centerX, double centerY) {
+        startScale = handler.getScale();
+        startCenterX = (view.getWidth() / 2.0 - handler.getOffsetX()) / startScale;
+        startCenterY = (view.getHeight() / 2.0 - handler.getOffsetY()) / startScale;
+        targetScale = Math.max(handler.getMinScale(), Math.min(handler.getMaxScale(), scale));
+        targetCenterX = centerX;
+        targetCenterY = centerY;
+        startNanos = System.nanoTime();
+        remember();
+        timer.start();
+    }
+
+    /**
+     * Stops the animation where it is
+     */
+    public void cancel() {
+        timer.stop();
+    }
+
+    /**
+     * Checks whether an animation is running
+     * @return True while animating
+     */
+    public boolean isAnimating() {
+        return timer.isRunning();
+    }
+
+    private void step() {
+        if (handler.getScale() != appliedScale || handler.getOffsetX() != appliedX || handler.getOffsetY() != appliedY) {
+            cancel();  // Moved by the user
+            return;
+        }
+        double t = Math.min(1.0, (System.nanoTime() - startNanos) / (DURATION_MILLIS * 1e6));
+        double eased = 1 - Math.pow(1 - t, 3);  // Ease out cubic
+
+        double scale = t < 1 ? startScale * Math.pow(targetScale / startScale, eased) : targetScale;
+        double centerX = startCenterX + (targetCenterX - startCenterX) * eased;
+        double centerY = startCenterY + (targetCenterY - startCenterY) * eased;
+        handler.setView(scale, (int) Math.round(view.getWidth() / 2.0 - centerX * scale),
+                (int) Math.round(view.getHeight() / 2.0 - centerY * scale));
+        remember();
+        if (t >= 1) {
+            timer.stop();
+        }
+    }
+
+    private void remember() {
+        appliedScale = handler.getScale();
+        appliedX = handler.getOffsetX();
+        appliedY = handler.getOffsetY();
+    }
+}
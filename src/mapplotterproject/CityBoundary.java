@@ -1,27 +1,70 @@
 package mapplotterproject;
 
 import java.awt.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
 import java.util.Random;
 
 /**
  * CityBoundary class
  * Represents the boundary of a city and provides methods for point generation and boundary drawing.
+ * A boundary can consist of several parts (e.g. a municipality with islands) and can have holes.
+ * Points are sampled uniformly from a triangulation of the parts that is built once per city;
+ * points whose pixel is not inside the city, in a hole or just past the outline, are drawn again,
+ * and a point that keeps missing is drawn by rejection sampling instead.
  */
 public class CityBoundary {
+    // Attempts at drawing a point from the triangulation before falling back to rejection sampling
+    private static final int MAX_SAMPLE_ATTEMPTS = 64;
+    // Attempts at rejection sampling before settling for a fixed point of the boundary
+    private static final int MAX_REJECTION_ATTEMPTS = 4096;
+
     // Class members
     private final String cityName;
-    private final Polygon boundaryPolygon;
+    private final Polygon[] parts;
+    private final Polygon[] holes;
+    // The same rings prepared for fast containment tests
+    private final PreparedPolygon[] preparedParts;
+    private final PreparedPolygon[] preparedHoles;
+    private final Rectangle bounds;
     private final Random random;
 
+    // Triangulation: vertices of triangle i are (triX[3i..3i+2], triY[3i..3i+2]); null if it failed
+    private double[] triX, triY;
+    // Walker alias table over the triangles, weighted by area
+    private double[] aliasProbability;
+    private int[] alias;
+
     /**
      * Constructor for CityBoundary
      * @param cityName Name of the city
      * @param boundaryPolygon Polygon representing the city's boundary
      */
     public CityBoundary(String cityName, Polygon boundaryPolygon) {
+        this(cityName, List.of(boundaryPolygon), List.of());
+    }
+
+    /**
+     * Constructor for CityBoundary with several parts and holes
+     * @param cityName Name of the city
+     * @param parts Outer rings of the city's parts
+     * @param holes Rings cut out of the parts
+     */
+    public CityBoundary(String cityName, List<Polygon> parts, List<Polygon> holes) {
         this.cityName = cityName;
-        this.boundaryPolygon = boundaryPolygon;
+        this.parts = parts.toArray(new Polygon[0]);
+        this.holes = holes.toArray(new Polygon[0]);
+        this.preparedParts = parts.stream().map(PreparedPolygon::new).toArray(PreparedPolygon[]::new);
+        this.preparedHoles = holes.stream().map(PreparedPolygon::new).toArray(PreparedPolygon[]::new);
         this.random = new Random();  // Initialize random generator for point generation
+        Rectangle union = null;
+        for (Polygon part : this.parts) {
+            union = union == null ? part.getBounds() : union.union(part.getBounds());
+        }
+        this.bounds = union != null ? union : new Rectangle();
+        buildTriangulation();
     }
 
     /**
@@ -29,18 +72,453 @@ public class CityBoundary {
      * @return Point object representing a random point within the boundary
      */
     public Point getNextPoint() {
-        // Get the bounding rectangle of the polygon
-        Rectangle bounds = boundaryPolygon.getBounds();
-        Point randomPoint;
+        if (triX == null) {
+            return getNextPointByRejection(random);
+        }
+        long packed = samplePoint(random.nextDouble(), random.nextDouble());
+        for (int attempt = 1; attempt < MAX_SAMPLE_ATTEMPTS && !contains(packed); attempt++) {
+            packed = samplePoint(random.nextDouble(), random.nextDouble());
+        }
+        if (!contains(packed)) {
+            return getNextPointByRejection(random);
+        }
+        return new Point((int) (packed >> 32), (int) packed);
+    }
+
+    /**
+     * Generates uniformly distributed points within the city boundary in bulk
+     * @param n Number of points to generate
+     * @param outX Array receiving the x-coordinates
+     * @param outY Array receiving the y-coordinates
+     */
+    public void sample(int n, int[] outX, int[] outY) {
+        for (int i = 0; i < n; i++) {
+            Point p = getNextPoint();
+            outX[i] = p.x;
+            outY[i] = p.y;
+        }
+    }
+
+    /**
+     * Generates points deterministically, one per seed, so the same seed always lands on the same spot
+     * @param seeds Seeds, e.g. hashes of the people being placed
+     * @param n Number of points to generate
+     * @param outX Array receiving the x-coordinates
+     * @param outY Array receiving the y-coordinates
+     */
+    public void sample(long[] seeds, int n, int[] outX, int[] outY) {
+        for (int i = 0; i < n; i++) {
+            if (triX == null) {
+                Point p = getNextPointByRejection(new Random(seeds[i]));
+                outX[i] = p.x;
+                outY[i] = p.y;
+            } else {
+                long seed = seeds[i];
+                long packed = samplePoint(unitDouble(mix(seed)), unitDouble(mix(seed + 0x9E3779B97F4A7C15L)));
+                for (int attempt = 1; attempt < MAX_SAMPLE_ATTEMPTS && !contains(packed); attempt++) {
+                    seed += 2 * 0x9E3779B97F4A7C15L;
+                    packed = samplePoint(unitDouble(mix(seed)), unitDouble(mix(seed + 0x9E3779B97F4A7C15L)));
+                }
+                if (!contains(packed)) {
+                    Point p = getNextPointByRejection(new Random(seeds[i]));
+                    packed = ((long) p.x << 32) | (p.y & 0xFFFFFFFFL);
+                }
+                outX[i] = (int) (packed >> 32);
+                outY[i] = (int) packed;
+            }
+        }
+    }
+
+    /**
+     * Checks whether a packed point lies inside the city
+     */
+    private boolean contains(long packed) {
+        return contains((int) (packed >> 32), (int) packed);
+    }
+
+    /**
+     * Checks whether a point lies inside the city: inside one of its parts and outside its holes
+     * @param x X-coordinate
+     * @param y Y-coordinate
+     * @return True if the point is in the city
+     */
+    public boolean contains(int x, int y) {
+        return contains((double) x, (double) y);
+    }
+
+    /**
+     * Checks whether a point lies inside the city, with the same edge rules as Polygon.contains
+     * @param x X-coordinate
+     * @param y Y-coordinate
+     * @return True if the point is in the city
+     */
+    public boolean contains(double x, double y) {
+        boolean inPart = false;
+        for (PreparedPolygon part : preparedParts) {
+            if (part.contains(x, y)) {
+                inPart = true;
+                break;
+            }
+        }
+        if (!inPart) {
+            return false;
+        }
+        for (PreparedPolygon hole : preparedHoles) {
+            if (hole.contains(x, y)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * SplitMix64 finalizer, spreads the bits of a seed
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Maps the top 53 bits of a mixed seed to a double in [0, 1)
+     */
+    private static double unitDouble(long bits) {
+        return (bits >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Maps two uniform draws to a point of the triangulation.
+     * The first draw picks a triangle from the alias table and its leftover fraction is reused as the
+     * first barycentric coordinate, so no further draws are needed.
+     * Points are floored to whole pixels, which can move a point just past the outline or into a hole;
+     * callers draw again until contains accepts the pixel.
+     * @param u First uniform draw in [0, 1)
+     * @param v Second uniform draw in [0, 1)
+     * @return Point packed as x in the high and y in the low 32 bits
+     */
+    private long samplePoint(double u, double v) {
+        int triangles = alias.length;
+        double r = u * triangles;
+        int k = (int) r;
+        double f = r - k;
+        double s;
+        double p = aliasProbability[k];
+        if (f < p) {
+            s = f / p;
+        } else {
+            s = (f - p) / (1 - p);
+            k = alias[k];
+        }
+        double t = v;
+        if (s + t > 1) {
+            // Fold the far half of the parallelogram back into the triangle
+            s = 1 - s;
+            t = 1 - t;
+        }
+
+        int i = k * 3;
+        double ax = triX[i], ay = triY[i];
+        long x = (long) Math.floor(ax + s * (triX[i + 1] - ax) + t * (triX[i + 2] - ax));
+        long y = (long) Math.floor(ay + s * (triY[i + 1] - ay) + t * (triY[i + 2] - ay));
+        return (x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Generates a random point by rejection sampling within the bounding rectangle.
+     * Used when the boundary could not be triangulated (e.g. a self-intersecting polygon), or when
+     * points drawn from the triangulation keep landing outside the city. Gives up after a fixed number
+     * of draws, since a sliver or degenerate boundary may contain no integer point at all.
+     * @param random Random generator to draw from
+     * @return Point within the boundary, or the fallback point if none was found
+     */
+    private Point getNextPointByRejection(Random random) {
+        // A zero-sized side still holds the coordinates on its edge
+        int width = Math.max(1, bounds.width), height = Math.max(1, bounds.height);
+        for (int attempt = 0; attempt < MAX_REJECTION_ATTEMPTS; attempt++) {
+            int x = bounds.x + random.nextInt(width);
+            int y = bounds.y + random.nextInt(height);
+            if (contains(x, y)) {
+                return new Point(x, y);
+            }
+        }
+        return getFallbackPoint();
+    }
+
+    /**
+     * Picks a fixed point for a boundary that rejection sampling could not hit
+     * @return The center of the bounding rectangle if it is inside, else the first vertex inside,
+     *         else the first vertex
+     */
+    private Point getFallbackPoint() {
+        int cx = bounds.x + bounds.width / 2, cy = bounds.y + bounds.height / 2;
+        if (contains(cx, cy)) {
+            return new Point(cx, cy);
+        }
+        for (Polygon part : parts) {
+            for (int i = 0; i < part.npoints; i++) {
+                if (contains(part.xpoints[i], part.ypoints[i])) {
+                    return new Point(part.xpoints[i], part.ypoints[i]);
+                }
+            }
+        }
+        for (Polygon part : parts) {
+            if (part.npoints > 0) {
+                return new Point(part.xpoints[0], part.ypoints[0]);
+            }
+        }
+        return new Point(cx, cy);
+    }
+
+    /**
+     * Triangulates every part by ear clipping and builds one area-weighted alias table over all triangles.
+     * Leaves the triangulation null if any part cannot be clipped completely.
+     */
+    private void buildTriangulation() {
+        int capacity = 0;
+        for (Polygon part : parts) {
+            capacity += Math.max(0, part.npoints - 2);
+        }
+        if (capacity == 0) {
+            return;
+        }
+        double[] tx = new double[capacity * 3], ty = new double[capacity * 3], areas = new double[capacity];
+        int triangles = 0;
+        for (Polygon part : parts) {
+            int added = triangulate(part, tx, ty, areas, triangles);
+            if (added < 0) {
+                return;
+            }
+            triangles += added;
+        }
+
+        double total = 0;
+        for (int i = 0; i < triangles; i++) {
+            total += areas[i];
+        }
+        if (triangles == 0) {
+            return;
+        }
 
-        do {
-            // Generate random x and y coordinates within the bounding rectangle
-            int x = bounds.x + random.nextInt(bounds.width);
-            int y = bounds.y + random.nextInt(bounds.height);
-            randomPoint = new Point(x, y);
-        } while (!boundaryPolygon.contains(randomPoint));  // Repeat until a point inside the polygon is found
+        buildAliasTable(areas, triangles, total);
+        triX = Arrays.copyOf(tx, triangles * 3);
+        triY = Arrays.copyOf(ty, triangles * 3);
+    }
+
+    /**
+     * Triangulates one ring by ear clipping. As in earcut, the vertices are also linked in z-order
+     * (along a Morton curve over the ring's bounding box), so an ear test only visits the vertices
+     * whose z-order key falls between those of the ear's bounding box corners instead of the whole ring.
+     * @param polygon Ring to triangulate
+     * @param tx Receives the triangle x-coordinates
+     * @param ty Receives the triangle y-coordinates
+     * @param areas Receives the triangle areas
+     * @param offset Index of the first triangle to write
+     * @return Number of triangles written, or -1 if the ring cannot be clipped completely
+     */
+    private static int triangulate(Polygon polygon, double[] tx, double[] ty, double[] areas, int offset) {
+        int n = polygon.npoints;
+        int[] xs = polygon.xpoints, ys = polygon.ypoints;
+        if (n < 3) {
+            return -1;
+        }
+
+        double polygonArea = 0;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            polygonArea += (double) xs[j] * ys[i] - (double) xs[i] * ys[j];
+        }
+        double orientation = Math.signum(polygonArea);
+        if (orientation == 0) {
+            return -1;
+        }
+
+        // Doubly linked ring of remaining vertices
+        int[] prev = new int[n], next = new int[n];
+        for (int i = 0; i < n; i++) {
+            prev[i] = (i + n - 1) % n;
+            next[i] = (i + 1) % n;
+        }
+
+        // Remaining vertices linked in z-order; -1 ends the list
+        Rectangle box = polygon.getBounds();
+        ZOrder order = new ZOrder(box);
+        int[] z = new int[n], prevZ = new int[n], nextZ = new int[n];
+        long[] sorted = new long[n];
+        for (int i = 0; i < n; i++) {
+            z[i] = order.key(xs[i], ys[i]);
+            sorted[i] = ((long) z[i] << 32) | i;
+        }
+        Arrays.sort(sorted);
+        for (int k = 0; k < n; k++) {
+            int i = (int) sorted[k];
+            prevZ[i] = k > 0 ? (int) sorted[k - 1] : -1;
+            nextZ[i] = k < n - 1 ? (int) sorted[k + 1] : -1;
+        }
+
+        int triangles = offset;
+        int remaining = n;
+        int current = 0;
+        int sinceLastEar = 0;
+        while (remaining > 3) {
+            if (sinceLastEar > remaining) {
+                return -1;  // No ear left: self-intersecting or degenerate polygon
+            }
+            int a = prev[current], b = current, c = next[current];
+            double cross = cross(xs[a], ys[a], xs[b], ys[b], xs[c], ys[c]) * orientation;
+            if (cross == 0) {
+                // Collinear vertex, drop it without emitting a triangle
+                next[a] = c;
+                prev[c] = a;
+                unlinkZ(prevZ, nextZ, b);
+                remaining--;
+                current = a;
+                sinceLastEar = 0;
+            } else if (cross > 0 && isEar(xs, ys, prev, next, z, prevZ, nextZ, order, a, b, c, orientation)) {
+                areas[triangles] = Math.abs(cross) / 2;
+                addTriangle(tx, ty, triangles++, xs, ys, a, b, c);
+                next[a] = c;
+                prev[c] = a;
+                unlinkZ(prevZ, nextZ, b);
+                remaining--;
+                current = a;
+                sinceLastEar = 0;
+            } else {
+                current = c;
+                sinceLastEar++;
+            }
+        }
+        int a = prev[current], c = next[current];
+        double lastArea = Math.abs(cross(xs[a], ys[a], xs[current], ys[current], xs[c], ys[c])) / 2;
+        if (lastArea > 0) {
+            areas[triangles] = lastArea;
+            addTriangle(tx, ty, triangles++, xs, ys, a, current, c);
+        }
+
+        double total = 0;
+        for (int i = offset; i < triangles; i++) {
+            total += areas[i];
+        }
+        if (triangles == offset || Math.abs(total - Math.abs(polygonArea) / 2) > 1e-6 * total) {
+            return -1;  // Triangles do not cover the polygon exactly
+        }
+        return triangles - offset;
+    }
+
+    /**
+     * Checks that no other remaining vertex lies inside the candidate ear (a, b, c). Only reflex (or
+     * collinear) vertices can, and only those within the ear's bounding box, so the vertices are walked
+     * in z-order in both directions from b as far as the z-order keys of the box corners.
+     */
+    private static boolean isEar(int[] xs, int[] ys, int[] prev, int[] next, int[] z, int[] prevZ, int[] nextZ,
+                                 ZOrder order, int a, int b, int c, double orientation) {
+        int minX = Math.min(xs[a], Math.min(xs[b], xs[c])), maxX = Math.max(xs[a], Math.max(xs[b], xs[c]));
+        int minY = Math.min(ys[a], Math.min(ys[b], ys[c])), maxY = Math.max(ys[a], Math.max(ys[b], ys[c]));
+        int minZ = order.key(minX, minY), maxZ = order.key(maxX, maxY);
+        for (int p = nextZ[b]; p >= 0 && z[p] <= maxZ; p = nextZ[p]) {
+            if (blocksEar(xs, ys, prev, next, a, b, c, p, orientation)) return false;
+        }
+        for (int p = prevZ[b]; p >= 0 && z[p] >= minZ; p = prevZ[p]) {
+            if (blocksEar(xs, ys, prev, next, a, b, c, p, orientation)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether vertex p is a reflex vertex inside the candidate ear (a, b, c)
+     */
+    private static boolean blocksEar(int[] xs, int[] ys, int[] prev, int[] next, int a, int b, int c, int p,
+                                     double orientation) {
+        if ((xs[p] == xs[a] && ys[p] == ys[a]) || (xs[p] == xs[b] && ys[p] == ys[b])
+                || (xs[p] == xs[c] && ys[p] == ys[c])) {
+            return false;
+        }
+        return cross(xs[a], ys[a], xs[b], ys[b], xs[p], ys[p]) * orientation >= 0
+                && cross(xs[b], ys[b], xs[c], ys[c], xs[p], ys[p]) * orientation >= 0
+                && cross(xs[c], ys[c], xs[a], ys[a], xs[p], ys[p]) * orientation >= 0
+                && cross(xs[prev[p]], ys[prev[p]], xs[p], ys[p], xs[next[p]], ys[next[p]]) * orientation <= 0;
+    }
+
+    /**
+     * Takes a clipped vertex out of the z-order list
+     */
+    private static void unlinkZ(int[] prevZ, int[] nextZ, int i) {
+        if (prevZ[i] >= 0) nextZ[prevZ[i]] = nextZ[i];
+        if (nextZ[i] >= 0) prevZ[nextZ[i]] = prevZ[i];
+    }
+
+    /**
+     * Morton (z-order) keys over a bounding box: coordinates are scaled to 15 bits and interleaved,
+     * so every point inside an axis-aligned box has a key between the keys of its corners
+     */
+    private static final class ZOrder {
+        private final int minX, minY;
+        private final double scale;
+
+        ZOrder(Rectangle box) {
+            minX = box.x;
+            minY = box.y;
+            scale = 32767.0 / Math.max(1, Math.max(box.width, box.height));
+        }
+
+        int key(int x, int y) {
+            return spread((int) ((x - minX) * scale)) | (spread((int) ((y - minY) * scale)) << 1);
+        }
 
-        return randomPoint;
+        // Put a zero bit between each of the low 16 bits
+        private static int spread(int v) {
+            v = (v | (v << 8)) & 0x00FF00FF;
+            v = (v | (v << 4)) & 0x0F0F0F0F;
+            v = (v | (v << 2)) & 0x33333333;
+            v = (v | (v << 1)) & 0x55555555;
+            return v;
+        }
+    }
+
+    /**
+     * Cross product of (b - a) and (c - b); its sign tells which way the path a-b-c turns
+     */
+    private static double cross(double ax, double ay, double bx, double by, double cx, double cy) {
+        return (bx - ax) * (cy - by) - (by - ay) * (cx - bx);
+    }
+
+    private static void addTriangle(double[] tx, double[] ty, int i, int[] xs, int[] ys, int a, int b, int c) {
+        tx[i * 3] = xs[a];
+        ty[i * 3] = ys[a];
+        tx[i * 3 + 1] = xs[b];
+        ty[i * 3 + 1] = ys[b];
+        tx[i * 3 + 2] = xs[c];
+        ty[i * 3 + 2] = ys[c];
+    }
+
+    /**
+     * Builds a Walker alias table (Vose's method) so a triangle can be picked by area in constant time
+     * @param weights Triangle areas
+     * @param count Number of triangles
+     * @param total Sum of the areas
+     */
+    private void buildAliasTable(double[] weights, int count, double total) {
+        aliasProbability = new double[count];
+        alias = new int[count];
+        double[] scaled = new double[count];
+        Deque<Integer> small = new ArrayDeque<>(), large = new ArrayDeque<>();
+        for (int i = 0; i < count; i++) {
+            scaled[i] = weights[i] * count / total;
+            (scaled[i] < 1 ? small : large).push(i);
+        }
+        while (!small.isEmpty() && !large.isEmpty()) {
+            int s = small.pop(), l = large.pop();
+            aliasProbability[s] = scaled[s];
+            alias[s] = l;
+            scaled[l] -= 1 - scaled[s];
+            (scaled[l] < 1 ? small : large).push(l);
+        }
+        // Whatever is left is 1 up to rounding
+        while (!large.isEmpty()) {
+            aliasProbability[large.pop()] = 1;
+        }
+        while (!small.isEmpty()) {
+            aliasProbability[small.pop()] = 1;
+        }
     }
 
     /**
@@ -50,7 +528,44 @@ public class CityBoundary {
     public void drawBoundary(Graphics2D g) {
         g.setColor(Color.RED);  // Set the color for the boundary
         g.setStroke(new BasicStroke(2));  // Set the line thickness
-        g.drawPolygon(boundaryPolygon);  // Draw the polygon representing the city boundary
+        for (Polygon part : parts) {
+            g.drawPolygon(part);
+        }
+        for (Polygon hole : holes) {
+            g.drawPolygon(hole);
+        }
+    }
+
+    /**
+     * Getter for the boundary polygon
+     * @return Outer ring of the city's first part
+     */
+    public Polygon getBoundaryPolygon() {
+        return parts[0];
+    }
+
+    /**
+     * Getter for the outer rings of the city's parts
+     * @return Parts of the city
+     */
+    public Polygon[] getParts() {
+        return parts;
+    }
+
+    /**
+     * Getter for the holes cut out of the parts
+     * @return Holes of the city
+     */
+    public Polygon[] getHoles() {
+        return holes;
+    }
+
+    /**
+     * Getter for the bounding box of all parts
+     * @return Bounding rectangle
+     */
+    public Rectangle getBounds() {
+        return bounds;
     }
 
     /**
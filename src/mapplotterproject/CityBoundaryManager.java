@@ -2,16 +2,40 @@
 package mapplotterproject;
 
 import java.awt.*;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 /**
  * CityBoundaryManager class
  * Manages multiple city boundaries, including their initialization and rendering.
+ * An R-tree over the bounding boxes of all boundary parts keeps point lookups and
+ * drawing of the visible boundaries fast for large boundary sets.
  */
 public class CityBoundaryManager {
     // List to store all city boundaries
     private final List<CityBoundary> cityBoundaries;
+    // City table; ids below the boundary count refer to cityBoundaries, the rest are cities without a boundary
+    private final List<String> cityNames;
+    // Index from normalized city name or alias to city id
+    private final Map<String, Integer> cityIndex;
+    // R-tree from the bounding box of every boundary part to its city id
+    private BoundaryIndex boundaryIndex;
+    // Point-in-boundary engine over the same boundaries
+    private CityClassifier classifier;
+    // Rasterized boundaries, null until built on first use or in the background
+    private volatile CityMask cityMask;
+    // Fingerprint of the boundary set, computed once the boundaries are final
+    private long fingerprint;
+
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_ALPHANUMERIC = Pattern.compile("[^a-z0-9]+");
 
     /**
      * Constructor for CityBoundaryManager
@@ -19,7 +43,43 @@ public class CityBoundaryManager {
      */
     public CityBoundaryManager() {
         cityBoundaries = new ArrayList<>();
+        cityNames = new ArrayList<>();
+        cityIndex = new HashMap<>();
         initializeCityBoundaries();
+        initializeCityAliases();
+        buildBoundaryIndex();
+    }
+
+    /**
+     * Constructor for CityBoundaryManager with boundaries loaded from a file
+     * @param boundaries Boundaries to use instead of the built-in ones
+     */
+    public CityBoundaryManager(List<CityBoundary> boundaries) {
+        cityBoundaries = new ArrayList<>();
+        cityNames = new ArrayList<>();
+        cityIndex = new HashMap<>();
+        for (CityBoundary boundary : boundaries) {
+            addCityBoundary(boundary);
+        }
+        initializeCityAliases();
+        buildBoundaryIndex();
+    }
+
+    /**
+     * Builds the R-tree over the bounding boxes of all boundary parts, the classifier and the fingerprint
+     */
+    private void buildBoundaryIndex() {
+        List<Rectangle> boxes = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 0; id < cityBoundaries.size(); id++) {
+            for (Polygon part : cityBoundaries.get(id).getParts()) {
+                boxes.add(part.getBounds());
+                ids.add(id);
+            }
+        }
+        boundaryIndex = new BoundaryIndex(boxes.toArray(new Rectangle[0]), ids.stream().mapToInt(Integer::intValue).toArray());
+        classifier = new CityClassifier(cityBoundaries);
+        fingerprint = computeFingerprint();
     }
 
     /**
@@ -145,6 +205,33 @@ public class CityBoundaryManager {
         // Additional cities can be added here using the same pattern
     }
 
+    /**
+     * Registers common alternative spellings and abbreviations of city names
+     */
+    private void initializeCityAliases() {
+        addCityAlias("GMA", "General Mariano Alvarez");
+        addCityAlias("Gen Mariano Alvarez", "General Mariano Alvarez");
+        addCityAlias("Gen Trias", "General Trias");
+        addCityAlias("GenTri", "General Trias");
+        addCityAlias("Trece", "Trece Martires");
+        addCityAlias("Dasma", "Dasmarinas");
+        addCityAlias("Gen Emilio Aguinaldo", "General Emilio Aguinaldo");
+        addCityAlias("GEA", "General Emilio Aguinaldo");
+        addCityAlias("Mendez Nunez", "Mendez");
+    }
+
+    /**
+     * Registers an alias for a city that already has a boundary
+     * @param alias Alternative name of the city
+     * @param cityName Name the city was added with
+     */
+    private void addCityAlias(String alias, String cityName) {
+        Integer id = cityIndex.get(normalizeCityName(cityName));
+        if (id != null) {
+            cityIndex.putIfAbsent(normalizeCityName(alias), id);
+        }
+    }
+
     /**
      * Helper method to add a city boundary to the list
      * @param cityName Name of the city
@@ -153,7 +240,191 @@ public class CityBoundaryManager {
      */
     private void addCityBoundary(String cityName, int[] xPoints, int[] yPoints) {
         Polygon cityBoundary = new Polygon(xPoints, yPoints, xPoints.length);
-        cityBoundaries.add(new CityBoundary(cityName, cityBoundary));
+        addCityBoundary(new CityBoundary(cityName, cityBoundary));
+    }
+
+    private void addCityBoundary(CityBoundary boundary) {
+        cityBoundaries.add(boundary);
+        cityIndex.put(normalizeCityName(boundary.getCityName()), cityNames.size());
+        cityNames.add(boundary.getCityName());
+    }
+
+    /**
+     * Normalizes a city name for lookup: folds case and accents, turns punctuation into spaces and trims
+     * @param cityName City name as entered
+     * @return Normalized key, e.g. "dasmarinas" for " Dasmari\u00f1as "
+     */
+    static String normalizeCityName(String cityName) {
+        String folded = Normalizer.normalize(cityName, Normalizer.Form.NFD);
+        folded = COMBINING_MARKS.matcher(folded).replaceAll("").toLowerCase(Locale.ROOT);
+        return NON_ALPHANUMERIC.matcher(folded).replaceAll(" ").trim();
+    }
+
+    /**
+     * Looks up a city by name or alias, also accepting a trailing "City" (e.g. "Imus City")
+     * @param cityName City name as entered
+     * @return Id of the city, or -1 if it is not in the city table
+     */
+    public int findCity(String cityName) {
+        String key = normalizeCityName(cityName);
+        Integer id = cityIndex.get(key);
+        if (id == null && key.endsWith(" city")) {
+            id = cityIndex.get(key.substring(0, key.length() - " city".length()));
+        }
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Gets the id of a city in the city table, adding cities without a boundary on first use
+     * @param cityName Name of the city
+     * @return Id of the city
+     */
+    public int internCity(String cityName) {
+        int id = findCity(cityName);
+        if (id < 0) {
+            id = cityNames.size();
+            cityNames.add(cityName.trim());
+            cityIndex.put(normalizeCityName(cityName), id);
+        }
+        return id;
+    }
+
+    /**
+     * Resolves a column of city names to city ids in one pass.
+     * Repeated spellings are normalized only once per batch.
+     * @param cityNames City names as entered, one per row
+     * @return City id per row; rows whose city has no boundary get an id for which hasBoundary is false
+     */
+    public int[] resolveCities(List<String> cityNames) {
+        int[] ids = new int[cityNames.size()];
+        Map<String, Integer> seen = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = seen.computeIfAbsent(cityNames.get(i), this::internCity);
+        }
+        return ids;
+    }
+
+    /**
+     * Checks whether a city id refers to a city with a boundary
+     * @param cityId Id of the city
+     * @return True if points can be placed in the city
+     */
+    public boolean hasBoundary(int cityId) {
+        return cityId >= 0 && cityId < cityBoundaries.size();
+    }
+
+    /**
+     * Gets the name of a city in the city table
+     * @param cityId Id of the city
+     * @return Name of the city
+     */
+    public String getCityName(int cityId) {
+        return cityNames.get(cityId);
+    }
+
+    /**
+     * Finds the city a point lies in, from the city mask if it is built and from the classifier until then;
+     * both give the same answer
+     * @param x X-coordinate on the map image
+     * @param y Y-coordinate on the map image
+     * @return Id of the city, the lowest one if boundaries overlap, or -1 if the point is in no city
+     */
+    public int findCityAt(int x, int y) {
+        CityMask mask = cityMask;
+        return mask != null ? mask.cityAt(x, y) : classifier.classify(x, y);
+    }
+
+    /**
+     * Getter for the classifier that finds the cities of many points at once
+     * @return Classifier over the city boundaries, safe to use from any thread
+     */
+    public CityClassifier getClassifier() {
+        return classifier;
+    }
+
+    /**
+     * Gets the boundaries rasterized for a map, building the mask on first use and again only when
+     * the boundaries or the map size change
+     * @param width Width of the map in pixels
+     * @param height Height of the map in pixels
+     * @return City mask of the map, safe to use from any thread
+     */
+    public CityMask getCityMask(int width, int height) {
+        CityMask mask = cityMask;
+        if (mask != null && mask.matches(fingerprint, width, height)) {
+            return mask;
+        }
+        synchronized (this) {
+            mask = cityMask;
+            if (mask == null || !mask.matches(fingerprint, width, height)) {
+                mask = new CityMask(classifier, fingerprint, width, height);
+                cityMask = mask;
+            }
+            return mask;
+        }
+    }
+
+    /**
+     * Rasterizes the boundaries for a map on a background thread, so findCityAt switches to the mask
+     * once it is ready and nobody waits for it
+     * @param width Width of the map in pixels
+     * @param height Height of the map in pixels
+     */
+    public void buildCityMaskInBackground(int width, int height) {
+        Thread builder = new Thread(() -> getCityMask(width, height), "city-mask");
+        builder.setDaemon(true);
+        builder.start();
+    }
+
+    /**
+     * Gets the boundary of a city in the city table
+     * @param cityId Id of the city
+     * @return CityBoundary of the city, or null if the city has no boundary
+     */
+    public CityBoundary getCityBoundary(int cityId) {
+        return hasBoundary(cityId) ? cityBoundaries.get(cityId) : null;
+    }
+
+    /**
+     * Fingerprints the boundary set; placements computed for one boundary set are invalid for another
+     * @return CRC32 over all city names and polygon vertices, in order
+     */
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    private long computeFingerprint() {
+        CRC32 crc = new CRC32();
+        for (CityBoundary boundary : cityBoundaries) {
+            crc.update(boundary.getCityName().getBytes(StandardCharsets.UTF_8));
+            for (Polygon polygon : boundary.getParts()) {
+                updateFingerprint(crc, polygon);
+            }
+            if (boundary.getHoles().length > 0) {
+                crc.update('H');
+                for (Polygon polygon : boundary.getHoles()) {
+                    updateFingerprint(crc, polygon);
+                }
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void updateFingerprint(CRC32 crc, Polygon polygon) {
+        for (int i = 0; i < polygon.npoints; i++) {
+            crc.update(polygon.xpoints[i]);
+            crc.update(polygon.xpoints[i] >> 8);
+            crc.update(polygon.ypoints[i]);
+            crc.update(polygon.ypoints[i] >> 8);
+        }
+    }
+
+    /**
+     * Gets the number of entries in the city table, including cities without a boundary
+     * @return Number of city ids in use
+     */
+    public int getCityCount() {
+        return cityNames.size();
     }
 
     /**
@@ -165,12 +436,25 @@ public class CityBoundaryManager {
     }
 
     /**
-     * Draws all city boundaries on the provided Graphics2D object
+     * Draws the city boundaries that intersect the clip area on the provided Graphics2D object
      * @param g2d Graphics2D object for drawing
      */
     public void drawBoundaries(Graphics2D g2d) {
-        for (CityBoundary boundary : cityBoundaries) {
-            boundary.drawBoundary(g2d);
+        Rectangle clip = g2d.getClipBounds();
+        if (clip == null) {
+            for (CityBoundary boundary : cityBoundaries) {
+                boundary.drawBoundary(g2d);
+            }
+            return;
         }
+        // The stroke reaches a pixel past the outline
+        clip.grow(2, 2);
+        boolean[] drawn = new boolean[cityBoundaries.size()];
+        boundaryIndex.query(clip, id -> {
+            if (!drawn[id]) {
+                drawn[id] = true;
+                cityBoundaries.get(id).drawBoundary(g2d);
+            }
+        });
     }
 }
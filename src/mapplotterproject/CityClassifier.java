@@ -0,0 +1,195 @@
+package mapplotterproject;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * CityClassifier class
+ * Classifies batches of coordinates into the cities whose boundary contains them, e.g. millions of
+ * real addresses or the corners of hazard zones. A grid over the boundaries lists for each cell the
+ * cities whose parts reach it, so a point is only tested against the few boundaries around it, and
+ * the tests themselves use the boundaries' prepared polygons. Batches are split into chunks that are
+ * classified in parallel on a fork-join pool.
+ *
+ * Results match CityBoundaryManager.findCityAt: the lowest city id whose boundary contains the point,
+ * with the edge rules of Polygon.contains, or -1 if no boundary does.
+ */
+public class CityClassifier {
+    private static final int CELL_SIZE = 32;
+    // Batches smaller than this are not worth a separate task
+    private static final int MIN_CHUNK_POINTS = 16 * 1024;
+
+    private final CityBoundary[] boundaries;
+    private final ForkJoinPool pool;
+    private final int gridX, gridY, columns, rows;
+    // Candidate cities of cell c are cellCities[cellStart[c]] to cellCities[cellStart[c + 1] - 1], in ascending id order
+    private final int[] cellStart;
+    private final int[] cellCities;
+
+    /**
+     * Constructor for CityClassifier using the common fork-join pool
+     * @param boundaries Boundaries indexed by city id
+     */
+    public CityClassifier(List<CityBoundary> boundaries) {
+        this(boundaries, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor for CityClassifier
+     * @param boundaries Boundaries indexed by city id
+     * @param pool Fork-join pool batches are classified on
+     */
+    public CityClassifier(List<CityBoundary> boundaries, ForkJoinPool pool) {
+        this.boundaries = boundaries.toArray(new CityBoundary[0]);
+        this.pool = pool;
+        Rectangle extent = null;
+        for (CityBoundary boundary : this.boundaries) {
+            extent = extent == null ? boundary.getBounds() : extent.union(boundary.getBounds());
+        }
+        if (extent == null) {
+            extent = new Rectangle();
+        }
+        gridX = extent.x;
+        gridY = extent.y;
+        columns = Math.max(1, (extent.width + CELL_SIZE - 1) / CELL_SIZE);
+        rows = Math.max(1, (extent.height + CELL_SIZE - 1) / CELL_SIZE);
+
+        // Bucket every part's bounding box; cities are added in id order, so the buckets stay sorted
+        List<List<Integer>> cells = new ArrayList<>();
+        for (int c = 0; c < columns * rows; c++) {
+            cells.add(new ArrayList<>());
+        }
+        for (int id = 0; id < this.boundaries.length; id++) {
+            for (Polygon part : this.boundaries[id].getParts()) {
+                Rectangle box = part.getBounds();
+                int col0 = Math.max(0, (box.x - gridX) / CELL_SIZE);
+                int col1 = Math.min(columns - 1, (box.x + box.width - gridX) / CELL_SIZE);
+                int row0 = Math.max(0, (box.y - gridY) / CELL_SIZE);
+                int row1 = Math.min(rows - 1, (box.y + box.height - gridY) / CELL_SIZE);
+                for (int row = row0; row <= row1; row++) {
+                    for (int col = col0; col <= col1; col++) {
+                        List<Integer> cell = cells.get(row * columns + col);
+                        if (cell.isEmpty() || cell.get(cell.size() - 1) != id) cell.add(id);
+                    }
+                }
+            }
+        }
+        cellStart = new int[cells.size() + 1];
+        for (int c = 0; c < cells.size(); c++) {
+            cellStart[c + 1] = cellStart[c] + cells.get(c).size();
+        }
+        cellCities = new int[cellStart[cells.size()]];
+        for (int c = 0; c < cells.size(); c++) {
+            for (int i = 0; i < cells.get(c).size(); i++) {
+                cellCities[cellStart[c] + i] = cells.get(c).get(i);
+            }
+        }
+    }
+
+    /**
+     * Finds the city a point lies in
+     * @param x X-coordinate on the map image
+     * @param y Y-coordinate on the map image
+     * @return Id of the city, the lowest one if boundaries overlap, or -1 if the point is in no city
+     */
+    public int classify(double x, double y) {
+        double col = Math.floor((x - gridX) / CELL_SIZE), row = Math.floor((y - gridY) / CELL_SIZE);
+        if (!(col >= 0 && row >= 0 && col < columns && row < rows)) {
+            return -1;
+        }
+        int cell = (int) row * columns + (int) col;
+        for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+            if (boundaries[cellCities[i]].contains(x, y)) {
+                return cellCities[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Classifies a batch of integer coordinates in parallel
+     * @param xs X-coordinates
+     * @param ys Y-coordinates, as many as xs
+     * @return City id per point, -1 for points in no city
+     */
+    public int[] classify(int[] xs, int[] ys) {
+        int[] cityIds = new int[xs.length];
+        forEachChunk(xs.length, MIN_CHUNK_POINTS, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                cityIds[i] = classify(xs[i], ys[i]);
+            }
+        });
+        return cityIds;
+    }
+
+    /**
+     * Classifies a batch of coordinates in parallel
+     * @param xs X-coordinates
+     * @param ys Y-coordinates, as many as xs
+     * @return City id per point, -1 for points in no city
+     */
+    public int[] classify(double[] xs, double[] ys) {
+        int[] cityIds = new int[xs.length];
+        forEachChunk(xs.length, MIN_CHUNK_POINTS, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                cityIds[i] = classify(xs[i], ys[i]);
+            }
+        });
+        return cityIds;
+    }
+
+    /**
+     * Classifies every pixel of an area starting at the origin, rows in parallel
+     * @param width Width of the area
+     * @param height Height of the area
+     * @return City id per pixel, row by row, -1 for pixels in no city
+     */
+    public short[] rasterize(int width, int height) {
+        short[] cityIds = new short[width * height];
+        forEachChunk(height, Math.max(1, MIN_CHUNK_POINTS / Math.max(1, width)), (from, to) -> {
+            for (int y = from; y < to; y++) {
+                for (int x = 0; x < width; x++) {
+                    cityIds[y * width + x] = (short) classify(x, y);
+                }
+            }
+        });
+        return cityIds;
+    }
+
+    /**
+     * Range of a batch handled by one task
+     */
+    private interface Chunk {
+        void run(int from, int to);
+    }
+
+    // Split a batch into one chunk per worker, but none smaller than minChunk, and run the chunks on the pool
+    private void forEachChunk(int count, int minChunk, Chunk chunk) {
+        int chunks = Math.max(1, Math.min(pool.getParallelism(), count / minChunk));
+        if (chunks == 1) {
+            chunk.run(0, count);
+            return;
+        }
+        List<RecursiveAction> tasks = new ArrayList<>();
+        for (int c = 0; c < chunks; c++) {
+            int from = (int) ((long) count * c / chunks), to = (int) ((long) count * (c + 1) / chunks);
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    chunk.run(from, to);
+                }
+            });
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(tasks);
+            }
+        });
+    }
+}
@@ -0,0 +1,71 @@
+package mapplotterproject;
+
+/**
+ * CityMask class
+ * The city boundaries rasterized into a label image the size of the map: one city id per pixel, so
+ * finding the city of a pixel is a single array read. Every pixel holds what the classifier answers
+ * for its integer coordinate, which keeps lookups identical to CityBoundary.contains.
+ * Points off the map are passed on to the classifier.
+ */
+public class CityMask {
+    private static final short NO_CITY = -1;
+
+    private final int width, height;
+    private final long fingerprint;
+    // City id per pixel, row by row, NO_CITY where no boundary covers the pixel
+    private final short[] cityIds;
+    private final CityClassifier classifier;
+
+    /**
+     * Rasterizes the boundaries of a classifier
+     * @param classifier Classifier over the boundaries
+     * @param fingerprint Fingerprint of the boundary set the classifier was built from
+     * @param width Width of the map in pixels
+     * @param height Height of the map in pixels
+     */
+    public CityMask(CityClassifier classifier, long fingerprint, int width, int height) {
+        this.classifier = classifier;
+        this.fingerprint = fingerprint;
+        this.width = width;
+        this.height = height;
+        this.cityIds = classifier.rasterize(width, height);
+    }
+
+    /**
+     * Checks whether the mask was built for a boundary set and map size
+     * @param fingerprint Fingerprint of the boundary set
+     * @param width Width of the map in pixels
+     * @param height Height of the map in pixels
+     * @return True if the mask can be used as it is
+     */
+    public boolean matches(long fingerprint, int width, int height) {
+        return this.fingerprint == fingerprint && this.width == width && this.height == height;
+    }
+
+    /**
+     * Finds the city a point lies in
+     * @param x X-coordinate on the map image
+     * @param y Y-coordinate on the map image
+     * @return Id of the city, the lowest one if boundaries overlap, or -1 if the point is in no city
+     */
+    public int cityAt(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return classifier.classify(x, y);
+        }
+        return cityIds[y * width + x];
+    }
+
+    /**
+     * Classifies a batch of points
+     * @param xs X-coordinates
+     * @param ys Y-coordinates, as many as xs
+     * @return City id per point, -1 for points in no city
+     */
+    public int[] classify(int[] xs, int[] ys) {
+        int[] result = new int[xs.length];
+        for (int i = 0; i < xs.length; i++) {
+            result[i] = cityAt(xs[i], ys[i]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,410 @@
+package mapplotterproject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * CsvLoader class
+ * Loads the roster CSV by memory-mapping the file, splitting it into line-aligned chunks
+ * and parsing the chunks in parallel on a fork-join pool. Fields follow RFC 4180 quoting.
+ */
+public class CsvLoader {
+    // Number of columns in a roster row (Name, City, Address)
+    public static final int COLUMNS = 3;
+
+    // Chunks smaller than this are not worth a separate task
+    private static final int MIN_CHUNK_BYTES = 64 * 1024;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * Constructor for CsvLoader using the common fork-join pool
+     */
+    public CsvLoader() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor for CsvLoader
+     * @param pool Fork-join pool the chunk parsers run on
+     */
+    public CsvLoader(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Memory-maps and parses a CSV file, skipping its header row
+     * @param path Path of the CSV file
+     * @return Result holding the parsed rows and load statistics
+     * @throws IOException If the file cannot be read or is too large to map
+     */
+    public Result load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("CSV file too large to map: " + size + " bytes");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return parse(buffer);
+        }
+    }
+
+    /**
+     * Parses CSV content, skipping its header row
+     * @param buffer Buffer holding UTF-8 encoded CSV content from position 0 to its limit
+     * @return Result holding the parsed rows and load statistics
+     */
+    public Result parse(ByteBuffer buffer) {
+        long start = System.nanoTime();
+        int[] bounds = splitChunks(buffer, skipHeader(buffer), pool.getParallelism());
+
+        List<ChunkTask> tasks = new ArrayList<>();
+        for (int i = 0; i + 1 < bounds.length; i++) {
+            tasks.add(new ChunkTask(buffer, bounds[i], bounds[i + 1]));
+        }
+        invokeAll(tasks);
+
+        // Concatenate chunk results in file order
+        List<String[]> rows = new ArrayList<>();
+        int rejected = 0;
+        for (ChunkTask task : tasks) {
+            Chunk chunk = task.join();
+            rows.addAll(chunk.rows);
+            rejected += chunk.rejected;
+        }
+        return new Result(rows, rejected, tasks.size(), System.nanoTime() - start);
+    }
+
+    /**
+     * Runs tasks on the pool and waits for all of them
+     * @param tasks Tasks to run; their results are joined by the caller
+     */
+    private void invokeAll(List<? extends ForkJoinTask<?>> tasks) {
+        pool.invoke(new RecursiveTask<Void>() {
+            @Override
+            protected Void compute() {
+                ForkJoinTask.invokeAll(tasks);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Finds the first byte after the header row
+     * @param buffer CSV content
+     * @return Offset of the first data row
+     */
+    private static int skipHeader(ByteBuffer buffer) {
+        return nextRecordStart(buffer, 0, buffer.limit(), false);
+    }
+
+    /**
+     * Splits the data region into chunks that start and end on record boundaries.
+     * The quotes in each nominal chunk are counted in parallel; a prefix over the counts gives the quote
+     * parity at each nominal split, from where the split moves forward to the next unquoted newline,
+     * so newlines inside quoted fields are never used as a split.
+     * @param buffer CSV content
+     * @param from Offset of the first data row
+     * @param parallelism Number of workers to produce chunks for
+     * @return Chunk boundaries, starting with from and ending with the buffer limit
+     */
+    private int[] splitChunks(ByteBuffer buffer, int from, int parallelism) {
+        int limit = buffer.limit();
+        int chunkCount = Math.max(1, Math.min(parallelism * 4, (limit - from) / MIN_CHUNK_BYTES));
+        if (chunkCount == 1) {
+            return new int[]{from, limit};
+        }
+
+        int target = (limit - from) / chunkCount;
+        List<QuoteCountTask> counts = new ArrayList<>();
+        for (int i = 0; i < chunkCount; i++) {
+            int start = from + i * target;
+            counts.add(new QuoteCountTask(buffer, start, i + 1 == chunkCount ? limit : start + target));
+        }
+        invokeAll(counts);
+
+        int[] bounds = new int[chunkCount + 1];
+        int count = 0;
+        bounds[count++] = from;
+        boolean quoted = false;
+        for (int i = 1; i < chunkCount; i++) {
+            quoted ^= (counts.get(i - 1).join() & 1) != 0;
+            int split = nextRecordStart(buffer, from + i * target, limit, quoted);
+            // A quoted field may run past the next nominal split, which then lands on the same record
+            if (split > bounds[count - 1] && split < limit) {
+                bounds[count++] = split;
+            }
+        }
+        bounds[count++] = limit;
+        return Arrays.copyOf(bounds, count);
+    }
+
+    /**
+     * Finds the start of the record after the one beginning at the given offset
+     * @param buffer CSV content
+     * @param from Offset of the current record
+     * @param limit End of the region to scan
+     * @param quoted Whether the offset is inside a quoted field
+     * @return Offset of the next record, or limit if there is none
+     */
+    private static int nextRecordStart(ByteBuffer buffer, int from, int limit, boolean quoted) {
+        for (int i = from; i < limit; i++) {
+            byte b = buffer.get(i);
+            if (b == '"') {
+                quoted = !quoted;
+            } else if (b == '\n' && !quoted) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Parses a single CSV line, for callers that already hold the line as a string
+     * @param line Line without its terminator
+     * @return Parsed fields
+     */
+    public static String[] parseLine(String line) {
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        Chunk chunk = new ChunkTask(buffer, 0, buffer.limit()).parseFields();
+        return chunk.fields.toArray(new String[0]);
+    }
+
+    /**
+     * Formats fields as one CSV line, quoting fields that need it
+     * @param fields Fields to format
+     * @return Line without its terminator
+     */
+    public static String formatRow(String... fields) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(quote(fields[i]));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Quotes a field per RFC 4180 if it contains a comma, quote or line break
+     * @param field Field value
+     * @return Field ready to be written to a CSV line
+     */
+    public static String quote(String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Parsed rows of a single chunk
+     */
+    private static class Chunk {
+        final List<String[]> rows = new ArrayList<>();
+        final List<String> fields = new ArrayList<>();
+        int rejected;
+    }
+
+    /**
+     * Fork-join task that counts the quote characters in one region
+     */
+    private static class QuoteCountTask extends RecursiveTask<Integer> {
+        private final ByteBuffer buffer;
+        private final int from, to;
+
+        QuoteCountTask(ByteBuffer buffer, int from, int to) {
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            int count = 0;
+            for (int i = from; i < to; i++) {
+                if (buffer.get(i) == '"') count++;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Fork-join task that parses the records in one chunk
+     */
+    private static class ChunkTask extends RecursiveTask<Chunk> {
+        private final ByteBuffer buffer;
+        private final int from, to;
+        private byte[] scratch = new byte[256];
+
+        ChunkTask(ByteBuffer buffer, int from, int to) {
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Chunk compute() {
+            Chunk chunk = new Chunk();
+            int pos = from;
+            while (pos < to) {
+                pos = parseRecord(chunk, pos);
+            }
+            return chunk;
+        }
+
+        /**
+         * Parses one line as fields only, without row validation
+         * @return Chunk whose fields list holds the parsed fields
+         */
+        Chunk parseFields() {
+            Chunk chunk = new Chunk();
+            readFields(chunk, from);
+            return chunk;
+        }
+
+        /**
+         * Parses one record and adds it to the chunk, or counts it as rejected
+         * @param chunk Chunk being filled
+         * @param pos Offset of the record
+         * @return Offset of the next record
+         */
+        private int parseRecord(Chunk chunk, int pos) {
+            chunk.fields.clear();
+            int next = readFields(chunk, pos);
+            if (next < 0) {
+                // Unterminated quote runs to the end of the chunk
+                chunk.rejected++;
+                return to;
+            }
+
+            List<String> fields = chunk.fields;
+            if (fields.size() == 1 && fields.get(0).isEmpty()) {
+                return next;  // Blank line
+            }
+            if (fields.size() != COLUMNS) {
+                chunk.rejected++;
+            } else {
+                chunk.rows.add(fields.toArray(new String[COLUMNS]));
+            }
+            return next;
+        }
+
+        /**
+         * Reads the fields of one record into chunk.fields
+         * @param chunk Chunk whose fields list is filled
+         * @param pos Offset of the record
+         * @return Offset of the next record, or -1 if a quoted field is not terminated
+         */
+        private int readFields(Chunk chunk, int pos) {
+            int length = 0;
+            boolean quoted = false;
+            boolean wasQuoted = false;
+
+            while (pos < to) {
+                byte b = buffer.get(pos++);
+                if (quoted) {
+                    if (b == '"') {
+                        if (pos < to && buffer.get(pos) == '"') {
+                            length = append(length, b);  // Escaped quote
+                            pos++;
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        length = append(length, b);
+                    }
+                } else if (b == '"' && length == 0 && !wasQuoted) {
+                    quoted = wasQuoted = true;
+                } else if (b == ',') {
+                    chunk.fields.add(new String(scratch, 0, length, StandardCharsets.UTF_8));
+                    length = 0;
+                    wasQuoted = false;
+                } else if (b == '\n') {
+                    break;
+                } else if (b != '\r') {
+                    length = append(length, b);
+                }
+            }
+            if (quoted) {
+                return -1;
+            }
+
+            chunk.fields.add(new String(scratch, 0, length, StandardCharsets.UTF_8));
+            return pos;
+        }
+
+        /**
+         * Appends a byte to the field scratch buffer, growing it as needed
+         * @param length Current field length
+         * @param b Byte to append
+         * @return New field length
+         */
+        private int append(int length, byte b) {
+            if (length == scratch.length) {
+                byte[] grown = new byte[scratch.length * 2];
+                System.arraycopy(scratch, 0, grown, 0, length);
+                scratch = grown;
+            }
+            scratch[length] = b;
+            return length + 1;
+        }
+    }
+
+    /**
+     * Result of a CSV load
+     */
+    public static class Result {
+        private final List<String[]> rows;
+        private final int rejected;
+        private final int chunks;
+        private final long elapsedNanos;
+
+        Result(List<String[]> rows, int rejected, int chunks, long elapsedNanos) {
+            this.rows = rows;
+            this.rejected = rejected;
+            this.chunks = chunks;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Getter for the parsed rows, in file order
+         * @return List of rows, each holding Name, City and Address
+         */
+        public List<String[]> getRows() {
+            return rows;
+        }
+
+        /**
+         * Getter for the number of rows that were malformed or had the wrong column count
+         * @return Number of rejected rows
+         */
+        public int getRejected() {
+            return rejected;
+        }
+
+        /**
+         * Getter for the load throughput
+         * @return Accepted rows per second
+         */
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0 : rows.size() * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Loaded %d rows (%d rejected) in %.1f ms using %d chunks, %.0f rows/sec",
+                    rows.size(), rejected, elapsedNanos / 1e6, chunks, getRowsPerSecond());
+        }
+    }
+}
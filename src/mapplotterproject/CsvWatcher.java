@@ -0,0 +1,132 @@
+package mapplotterproject;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CsvWatcher class
+ * Watches a file with a WatchService and reports changes once writes to it have settled.
+ * Editors and exports often write a file in several bursts (truncate, write, rename), so every event
+ * restarts a short debounce delay and the callback only runs when the file has been quiet for it.
+ * Callbacks run one at a time on a background thread.
+ */
+public class CsvWatcher {
+    private static final long DEBOUNCE_MILLIS = 300;
+
+    private final Path file;
+    private final Runnable onChange;
+    private final ScheduledExecutorService scheduler;
+    private WatchService watchService;
+    private ScheduledFuture<?> pending;
+
+    /**
+     * Constructor for CsvWatcher
+     * @param file File to watch
+     * @param onChange Called on a background thread after the file changed
+     */
+    public CsvWatcher(Path file, Runnable onChange) {
+        this.file = file.toAbsolutePath();
+        this.onChange = onChange;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "csv-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts watching the file's directory
+     * @throws IOException If the directory cannot be watched
+     */
+    public synchronized void start() throws IOException {
+        if (watchService != null) {
+            return;
+        }
+        WatchService service = FileSystems.getDefault().newWatchService();
+        file.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        watchService = service;
+
+        Thread thread = new Thread(() -> watch(service), "csv-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching; a change that is waiting out the debounce delay is dropped
+     */
+    public synchronized void stop() {
+        if (watchService == null) {
+            return;
+        }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        watchService = null;
+        if (pending != null) {
+            pending.cancel(false);
+        }
+    }
+
+    /**
+     * Checks whether the file is being watched
+     * @return True between start and stop
+     */
+    public synchronized boolean isWatching() {
+        return watchService != null;
+    }
+
+    /**
+     * Reports a change, (re)starting the debounce delay
+     */
+    public synchronized void fileChanged() {
+        if (pending != null) {
+            pending.cancel(false);
+        }
+        pending = scheduler.schedule(this::runCallback, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void runCallback() {
+        try {
+            onChange.run();
+        } catch (RuntimeException e) {
+            System.out.println("Error reloading " + file.getFileName() + ".");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Waits for events on the directory until the watch service is closed
+     */
+    private void watch(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    // An overflow means events were lost, so the file may have changed
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                        fileChanged();
+                    }
+                }
+                if (!key.reset()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package mapplotterproject;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * DensityGrid class
+ * Counts people per grid cell for the heatmap. Counts are kept in fine 5px base bins that follow the
+ * store's change events, so adding or removing a person touches one bin. Any grid size that is a
+ * multiple of the base bin is derived from a summed-area table of the base bins, which is rebuilt
+ * once per data change; changing the grid size then costs one lookup per cell.
+ */
+public class DensityGrid implements PersonStoreListener {
+    public static final int BASE_BIN = 5;
+
+    private final PersonStore people;
+    private final int width, height, columns, rows;
+    private final int[] counts;
+    // Summed-area table over counts, (columns + 1) x (rows + 1); stale while dirty
+    private final int[] sums;
+    private boolean dirty = true;
+    private int version;
+
+    // Translucent ramp from yellow to dark red, indexed by density 1..255
+    private static final int[] RAMP = buildRamp();
+
+    /**
+     * Constructor for DensityGrid
+     * @param people Store to count; the grid registers itself as a listener
+     * @param width Width of the map in pixels
+     * @param height Height of the map in pixels
+     */
+    public DensityGrid(PersonStore people, int width, int height) {
+        this.people = people;
+        this.width = width;
+        this.height = height;
+        this.columns = (width + BASE_BIN - 1) / BASE_BIN;
+        this.rows = (height + BASE_BIN - 1) / BASE_BIN;
+        this.counts = new int[columns * rows];
+        this.sums = new int[(columns + 1) * (rows + 1)];
+        rebuild();
+        people.addPersonStoreListener(this);
+    }
+
+    /**
+     * Bins people into cells of a grid size and renders them as a color-ramped raster,
+     * one pixel per cell
+     * @param gridSize Cell size in map pixels; rounded down to a multiple of the base bin
+     * @return Raster to be drawn scaled by the cell size at the map origin
+     */
+    public BufferedImage render(int gridSize) {
+        int step = Math.max(1, gridSize / BASE_BIN);
+        int[] cells = binCounts(step);
+        int cellColumns = (columns + step - 1) / step, cellRows = (rows + step - 1) / step;
+        int max = 0;
+        for (int count : cells) {
+            max = Math.max(max, count);
+        }
+
+        BufferedImage raster = new BufferedImage(cellColumns, cellRows, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = new int[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] == 0) continue;
+            // Square root keeps sparse cells visible next to a few very dense ones
+            pixels[i] = RAMP[Math.max(1, (int) Math.round(255 * Math.sqrt((double) cells[i] / max)))];
+        }
+        raster.setRGB(0, 0, cellColumns, cellRows, pixels, 0, cellColumns);
+        return raster;
+    }
+
+    /**
+     * Draws the heatmap for a grid size
+     * @param g Graphics in map coordinates
+     * @param gridSize Cell size in map pixels
+     */
+    public void draw(Graphics2D g, int gridSize) {
+        int cellSize = Math.max(1, gridSize / BASE_BIN) * BASE_BIN;
+        BufferedImage raster = render(gridSize);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        g.drawImage(raster, 0, 0, raster.getWidth() * cellSize, raster.getHeight() * cellSize, null);
+    }
+
+    /**
+     * Counts per cell of step x step base bins, row by row
+     */
+    int[] binCounts(int step) {
+        updateSums();
+        int cellColumns = (columns + step - 1) / step, cellRows = (rows + step - 1) / step;
+        int[] cells = new int[cellColumns * cellRows];
+        int stride = columns + 1;
+        for (int r = 0; r < cellRows; r++) {
+            int y0 = r * step, y1 = Math.min(rows, y0 + step);
+            for (int c = 0; c < cellColumns; c++) {
+                int x0 = c * step, x1 = Math.min(columns, x0 + step);
+                cells[r * cellColumns + c] = sums[y1 * stride + x1] - sums[y0 * stride + x1]
+                        - sums[y1 * stride + x0] + sums[y0 * stride + x0];
+            }
+        }
+        return cells;
+    }
+
+    private void updateSums() {
+        if (!dirty) {
+            return;
+        }
+        int stride = columns + 1;
+        for (int r = 0; r < rows; r++) {
+            int rowSum = 0;
+            for (int c = 0; c < columns; c++) {
+                rowSum += counts[r * columns + c];
+                sums[(r + 1) * stride + c + 1] = sums[r * stride + c + 1] + rowSum;
+            }
+        }
+        dirty = false;
+    }
+
+    private void rebuild() {
+        Arrays.fill(counts, 0);
+        for (int row = 0; row < people.size(); row++) {
+            if (people.isPlaced(row)) {
+                count(people.getX(row), people.getY(row), 1);
+            }
+        }
+    }
+
+    /**
+     * Adds to the bin of a point; points off the map are not counted
+     */
+    private void count(int x, int y, int delta) {
+        if (x == PersonStore.UNPLACED || x < 0 || y < 0 || x >= width || y >= height) {
+            return;
+        }
+        counts[(y / BASE_BIN) * columns + x / BASE_BIN] += delta;
+        dirty = true;
+        version++;
+    }
+
+    /**
+     * Getter for the version of the counts, which changes whenever a bin does
+     * @return Current version
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    @Override
+    public void personAdded(int row) {
+        count(people.getX(row), people.getY(row), 1);
+    }
+
+    @Override
+    public void personUpdated(int row, int oldX, int oldY) {
+        count(oldX, oldY, -1);
+        count(people.getX(row), people.getY(row), 1);
+    }
+
+    @Override
+    public void personRemoved(int row, int oldX, int oldY) {
+        count(oldX, oldY, -1);
+    }
+
+    @Override
+    public void peopleReloaded() {
+        rebuild();
+        dirty = true;
+        version++;
+    }
+
+    private static int[] buildRamp() {
+        int[] ramp = new int[256];
+        for (int i = 1; i < 256; i++) {
+            float t = i / 255f;
+            // Hue from yellow (1/6) to red (0), darkening and becoming more opaque with density
+            int rgb = Color.HSBtoRGB((1 - t) / 6f, 0.9f, 1f - 0.35f * t) & 0xFFFFFF;
+            int alpha = (int) (90 + 110 * t);
+            ramp[i] = (alpha << 24) | rgb;
+        }
+        return ramp;
+    }
+}
@@ -0,0 +1,489 @@
+package mapplotterproject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * EditJournal class
+ * Append-only journal of add, update and remove edits to the roster CSV, keyed by stable row id.
+ * Records are buffered and written with one fsync per batch. Once the journal grows past a size
+ * threshold it is compacted into a fresh CSV on a background thread.
+ *
+ * Row ids are positions in the CSV the journal applies to, followed by ids of added rows in the order
+ * they were added. Compaction writes a renumber marker ("N,generation") into the journal, after which
+ * ids follow the order of the compacted CSV. A small generation file records which CSV fingerprint
+ * contains everything up to which marker, so startup knows where to resume even if the process died
+ * half way through a compaction.
+ */
+public class EditJournal {
+    // Journal size after which it is folded into the CSV
+    private static final long COMPACT_THRESHOLD_BYTES = 256 * 1024;
+
+    private static final String HEADER = "Name,City,Address";
+    private static final String ADD = "A", UPDATE = "U", REMOVE = "R", COMMIT = "C", RENUMBER = "N";
+
+    private final Path csvPath, journalPath, generationPath;
+    private FileChannel channel;
+    private final StringBuilder pending = new StringBuilder();
+    private final ExecutorService compactor;
+    private Future<?> compaction;
+
+    // Generation of the last compaction, and fingerprint of the CSV the first journal record applies to
+    private int generation;
+    private String baseFingerprint;
+    // Fingerprint of the CSV the running or last compaction wrote
+    private String compactedFingerprint = "";
+
+    /**
+     * Receives replayed edits
+     */
+    public interface Target {
+        void replayAdd(int id, String name, String city, String address);
+        void replayUpdate(int id, String name, String city, String address);
+        void replayRemove(int id);
+
+        /**
+         * Renumbers row ids to 0..n-1 in row order, as compaction does when it writes the CSV
+         */
+        void renumber();
+    }
+
+    /**
+     * Constructor for EditJournal
+     * @param csvPath Path of the roster CSV
+     * @param journalPath Path of the journal file
+     */
+    public EditJournal(Path csvPath, Path journalPath) {
+        this.csvPath = csvPath;
+        this.journalPath = journalPath;
+        this.generationPath = journalPath.resolveSibling(journalPath.getFileName() + ".gen");
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "journal-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Replays the journal on top of the freshly loaded CSV.
+     * If the CSV is the output of the last compaction, edits up to its renumber marker are skipped since
+     * the CSV already contains them. If the CSV matches neither the compaction output nor the journal's
+     * base, it was replaced by someone else and the journal is discarded.
+     * @param target Receiver of the replayed edits
+     * @return Number of edits replayed
+     * @throws IOException If the journal cannot be read
+     */
+    public int replay(Target target) throws IOException {
+        return replay(target, true);
+    }
+
+    /**
+     * Replays the journal like replay, but leaves the journal and generation files as they are, e.g.
+     * for a tool that only reads the roster while the application may be running
+     * @param target Receiver of the replayed edits
+     * @return Number of edits replayed
+     * @throws IOException If the journal cannot be read
+     */
+    public int replayReadOnly(Target target) throws IOException {
+        return replay(target, false);
+    }
+
+    private int replay(Target target, boolean write) throws IOException {
+        awaitCompaction();
+        synchronized (this) {
+            String current = fingerprint(csvPath);
+            String[] state = readGeneration();
+            generation = state == null ? 0 : Integer.parseInt(state[0]);
+            String compacted = state == null ? "" : state[1];
+            baseFingerprint = state == null ? current : state[2];
+
+            List<String[]> records = readRecords();
+            int start = 0;
+            if (current.equals(compacted)) {
+                int marker = indexOfMarker(records, generation);
+                if (marker >= 0) {
+                    start = marker + 1;
+                    if (write) truncateThrough(records.get(marker));
+                }
+                baseFingerprint = current;
+            } else if (!current.equals(baseFingerprint)) {
+                if (!records.isEmpty()) {
+                    System.out.println("CSV was replaced outside the plotter, discarding " + records.size() + " journal records.");
+                }
+                if (write) {
+                    closeChannel();
+                    Files.deleteIfExists(journalPath);
+                }
+                records.clear();
+                baseFingerprint = current;
+            }
+            if (write && (state == null || !baseFingerprint.equals(state[2]))) {
+                writeGeneration(compacted, baseFingerprint);
+            }
+
+            return applyCommitted(records.subList(start, records.size()), target);
+        }
+    }
+
+    /**
+     * Picks up the journal state without replaying it, for a roster restored from a snapshot that was
+     * taken after this journal had been replayed
+     * @throws IOException If the generation file cannot be read
+     */
+    public synchronized void open() throws IOException {
+        String[] state = readGeneration();
+        generation = state == null ? 0 : Integer.parseInt(state[0]);
+        baseFingerprint = state == null ? fingerprint(csvPath) : state[2];
+    }
+
+    /**
+     * Applies committed batches; records after the last commit marker are a torn write and ignored
+     */
+    private int applyCommitted(List<String[]> records, Target target) {
+        int replayed = 0;
+        List<String[]> batch = new ArrayList<>();
+        for (String[] record : records) {
+            if (record[0].equals(COMMIT)) {
+                for (String[] edit : batch) {
+                    apply(edit, target);
+                }
+                replayed += batch.size();
+                batch.clear();
+            } else {
+                batch.add(record);
+            }
+        }
+        if (!batch.isEmpty()) {
+            System.out.println("Ignoring " + batch.size() + " uncommitted journal records.");
+        }
+        return replayed;
+    }
+
+    /**
+     * Applies one journal record
+     */
+    private static void apply(String[] record, Target target) {
+        try {
+            switch (record[0]) {
+                case ADD: target.replayAdd(Integer.parseInt(record[1]), record[2], record[3], record[4]); break;
+                case UPDATE: target.replayUpdate(Integer.parseInt(record[1]), record[2], record[3], record[4]); break;
+                case REMOVE: target.replayRemove(Integer.parseInt(record[1])); break;
+                case RENUMBER: target.renumber(); break;
+                default: System.out.println("Unknown journal record: " + String.join(",", record));
+            }
+        } catch (RuntimeException e) {
+            System.out.println("Skipping malformed journal record: " + String.join(",", record) + " (" + e + ")");
+        }
+    }
+
+    // Record an added person
+    public void appendAdd(int id, String name, String city, String address) {
+        appendRecord(ADD, Integer.toString(id), name, city, address);
+    }
+
+    // Record a changed person along with what the person was before, so the edit can be carried over
+    // to a CSV that was changed outside the plotter
+    public void appendUpdate(int id, String name, String city, String address, String oldName, String oldCity, String oldAddress) {
+        appendRecord(UPDATE, Integer.toString(id), name, city, address, oldName, oldCity, oldAddress);
+    }
+
+    // Record a removed person along with what the person was
+    public void appendRemove(int id, String oldName, String oldCity, String oldAddress) {
+        appendRecord(REMOVE, Integer.toString(id), oldName, oldCity, oldAddress);
+    }
+
+    /**
+     * Buffers a record until the next commit. Line breaks are flattened so every record is one line.
+     */
+    private synchronized void appendRecord(String... fields) {
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = fields[i].replace('\r', ' ').replace('\n', ' ');
+        }
+        pending.append(CsvLoader.formatRow(fields)).append('\n');
+    }
+
+    /**
+     * Writes the buffered records followed by a commit marker and forces them to disk
+     * @throws IOException If the journal cannot be written
+     */
+    public synchronized void commit() throws IOException {
+        if (pending.length() == 0) {
+            return;
+        }
+        pending.append(COMMIT).append('\n');
+        if (channel == null) {
+            channel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(pending.toString());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        channel.force(false);
+        pending.setLength(0);
+    }
+
+    /**
+     * Checks whether the journal has outgrown the compaction threshold and no compaction is running
+     * @return True if compact should be called
+     */
+    public synchronized boolean needsCompaction() throws IOException {
+        return (compaction == null || compaction.isDone()) && channel != null
+                && channel.size() > COMPACT_THRESHOLD_BYTES;
+    }
+
+    /**
+     * Starts compacting. A renumber marker is committed at once and the CSV is written from the given
+     * snapshot on a background thread. The caller must renumber its row ids to 0..n-1 in snapshot order
+     * right after this call, since that is how the new CSV numbers them and how later records refer to them.
+     * @param rows Snapshot of all rows (Name, City, Address) in row order
+     * @param onCompacted Called on the compaction thread once the new CSV is in place
+     * @throws IOException If the marker cannot be written
+     */
+    public synchronized void compact(List<String[]> rows, Runnable onCompacted) throws IOException {
+        int target = ++generation;
+        appendRecord(RENUMBER, Integer.toString(target));
+        commit();
+
+        String base = baseFingerprint;
+        compaction = compactor.submit(() -> {
+            try {
+                Path temp = writeCsv(rows);
+                String compacted = fingerprint(temp);
+                // Record what the new CSV contains before it replaces the old one
+                writeGeneration(target, compacted, base);
+                synchronized (this) {
+                    compactedFingerprint = compacted;
+                }
+                Files.move(temp, csvPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                synchronized (this) {
+                    truncateThrough(new String[]{RENUMBER, Integer.toString(target)});
+                    baseFingerprint = compacted;
+                }
+                System.out.println("Compacted journal into " + csvPath.getFileName() + " (" + rows.size() + " rows)");
+                onCompacted.run();
+            } catch (IOException e) {
+                System.out.println("Error compacting the journal.");
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Checks whether a CSV fingerprint is one the journal already accounts for: the journal's base or
+     * the output of its own compaction. Any other content was written by someone else.
+     * @param fingerprint Fingerprint of the CSV as returned by fingerprint
+     * @return True if the CSV holds nothing the roster does not already know about
+     */
+    public synchronized boolean isKnownCsv(String fingerprint) {
+        return fingerprint.equals(baseFingerprint) || fingerprint.equals(compactedFingerprint);
+    }
+
+    /**
+     * Reads the committed edits made since the CSV the journal applies to, e.g. to carry them over to a
+     * CSV that was changed outside the plotter. Call awaitCompaction first, so that no compaction marker
+     * is left in the journal and all ids refer to the roster as it is in memory.
+     * @return Records (type, id, fields) in journal order: "A" adds with name, city and address, "U" updates
+     *         with the new and then the old name, city and address, "R" removes with the old ones.
+     *         Records written by older versions lack the old fields.
+     * @throws IOException If the journal cannot be read
+     */
+    public synchronized List<String[]> readPendingEdits() throws IOException {
+        List<String[]> records = readRecords();
+        List<String[]> edits = new ArrayList<>();
+        List<String[]> batch = new ArrayList<>();
+        for (String[] record : records) {
+            if (record[0].equals(COMMIT)) {
+                edits.addAll(batch);
+                batch.clear();
+            } else if (record[0].equals(RENUMBER)) {
+                edits.clear();
+                batch.clear();
+            } else {
+                batch.add(record);
+            }
+        }
+        return edits;
+    }
+
+    /**
+     * Restarts the journal on a CSV that was changed outside the plotter and has been applied to the
+     * roster. The caller must have numbered its row ids by position in the new CSV, and then journals
+     * again whatever edits of its own the new CSV does not contain. Must not be called while a
+     * compaction is running (see isCompacting), so it never waits for one.
+     * @param fingerprint Fingerprint of the CSV content that was applied
+     * @throws IOException If the journal or generation file cannot be written
+     */
+    public synchronized void rebase(String fingerprint) throws IOException {
+        pending.setLength(0);
+        closeChannel();
+        Files.deleteIfExists(journalPath);
+        baseFingerprint = fingerprint;
+        writeGeneration("", baseFingerprint);
+    }
+
+    /**
+     * Checks whether a compaction is writing the CSV
+     * @return True until the running compaction has finished
+     */
+    public synchronized boolean isCompacting() {
+        return compaction != null && !compaction.isDone();
+    }
+
+    /**
+     * Writes rows to a temp CSV next to the roster and forces it to disk
+     * @return Path of the temp file
+     */
+    private Path writeCsv(List<String[]> rows) throws IOException {
+        Path temp = csvPath.resolveSibling(csvPath.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (String[] row : rows) {
+                writer.write(CsvLoader.formatRow(row));
+                writer.newLine();
+            }
+        }
+        force(temp);
+        return temp;
+    }
+
+    /**
+     * Drops journal records up to and including a renumber marker, keeping the ones written after it
+     * @param marker Renumber marker record
+     */
+    private void truncateThrough(String[] marker) throws IOException {
+        List<String[]> records = readRecords();
+        int index = indexOfMarker(records, Integer.parseInt(marker[1]));
+        if (index < 0) {
+            return;
+        }
+        closeChannel();
+        Path temp = journalPath.resolveSibling(journalPath.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (String[] record : records.subList(index + 1, records.size())) {
+                writer.write(CsvLoader.formatRow(record));
+                writer.newLine();
+            }
+        }
+        force(temp);
+        Files.move(temp, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads all journal records
+     */
+    private List<String[]> readRecords() throws IOException {
+        List<String[]> records = new ArrayList<>();
+        if (Files.exists(journalPath)) {
+            for (String line : Files.readAllLines(journalPath, StandardCharsets.UTF_8)) {
+                if (!line.isEmpty()) records.add(CsvLoader.parseLine(line));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Finds the renumber marker of a generation
+     * @return Index of the marker, or -1
+     */
+    private static int indexOfMarker(List<String[]> records, int generation) {
+        for (int i = 0; i < records.size(); i++) {
+            String[] record = records.get(i);
+            if (record[0].equals(RENUMBER) && record.length > 1 && record[1].equals(Integer.toString(generation))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the generation file: generation, fingerprint of its compacted CSV, fingerprint of the journal base
+     * @return The three fields, or null if there is no generation file yet
+     */
+    private String[] readGeneration() throws IOException {
+        if (!Files.exists(generationPath)) {
+            return null;
+        }
+        String[] fields = CsvLoader.parseLine(Files.readString(generationPath, StandardCharsets.UTF_8).trim());
+        return fields.length == 3 ? fields : null;
+    }
+
+    private void writeGeneration(String compacted, String base) throws IOException {
+        writeGeneration(generation, compacted, base);
+    }
+
+    /**
+     * Atomically replaces the generation file
+     */
+    private void writeGeneration(int generation, String compacted, String base) throws IOException {
+        Path temp = generationPath.resolveSibling(generationPath.getFileName() + ".tmp");
+        Files.writeString(temp, CsvLoader.formatRow(Integer.toString(generation), compacted, base) + "\n",
+                StandardCharsets.UTF_8);
+        force(temp);
+        Files.move(temp, generationPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Waits for a running compaction to finish
+     */
+    public void awaitCompaction() {
+        Future<?> running;
+        synchronized (this) {
+            running = compaction;
+        }
+        if (running == null) {
+            return;
+        }
+        try {
+            running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+        }
+    }
+
+    private static void force(Path path) throws IOException {
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            file.force(true);
+        }
+    }
+
+    /**
+     * Fingerprints a file by size and CRC32 of its content
+     * @param path File to fingerprint
+     * @return Fingerprint such as "1834-5f3a09c1", or "none" if the file does not exist
+     */
+    static String fingerprint(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return "none";
+        }
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            CRC32 crc = new CRC32();
+            crc.update(file.map(FileChannel.MapMode.READ_ONLY, 0, file.size()));
+            return file.size() + "-" + Long.toHexString(crc.getValue());
+        }
+    }
+}
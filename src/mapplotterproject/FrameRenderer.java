@@ -0,0 +1,389 @@
+package mapplotterproject;
+
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * FrameRenderer class
+ * Renders map frames on a background thread so that drawing many points never blocks the EDT.
+ * The EDT posts immutable scenes; the render thread draws the latest one into a back image from
+ * cached layers and swaps it with the front image, which the EDT blits. Scenes posted while a frame
+ * is being rendered replace each other, so when input outpaces rendering the stale ones are dropped
+ * and only the newest is drawn next.
+ *
+ * Everything the layers are drawn from is confined to the render thread: the store changes a scene
+ * carries are replayed on a replica store that the point index, heatmap, clusters and label placer
+ * follow, so an edit costs the render thread as much as the edit itself, and the base map tiles are
+ * only touched here.
+ */
+public class FrameRenderer {
+    // Names keep this size on screen at any zoom
+    static final Font NAME_FONT = new Font("Arial", Font.PLAIN, 14);
+    // Memory the base map tile cache may use
+    static final long TILE_CACHE_BYTES = 64L * 1024 * 1024;
+    // Side of a point index cell in map pixels; a viewport query visits the cells the view overlaps
+    private static final int POINT_CELL_SIZE = 25;
+    // How far, in device pixels, a point can be outside the view and still have part of its name visible
+    private static final int NAME_MARGIN = 400;
+    // Clusters are cells of at least this many device pixels; levels go from 8 to 256 map pixels
+    private static final int CLUSTER_CELL_PIXELS = 64;
+    private static final int CLUSTER_FINEST_CELL = 8, CLUSTER_LEVELS = 6;
+    private static final Font CLUSTER_FONT = new Font("Arial", Font.BOLD, 12);
+    private static final Color CLUSTER_FILL = new Color(220, 0, 0, 190);
+
+    private final TiledImage mapTiles;
+    private final CityBoundaryManager cityBoundaryManager;
+    private final FontMetrics nameMetrics;
+    private final FrameStats stats;
+    private final Runnable onFrame;
+
+    // Render thread state
+    private final PersonStore people = new PersonStore();
+    private final PointIndex pointIndex;
+    private final DensityGrid densityGrid;
+    private final LabelPlacer labelPlacer;
+    private PointClusters clusters;
+    // Changes whenever a point is added, moved or removed; names alone do not change it
+    private int pointsVersion, clustersVersion = -1;
+    private StoreChanges loadedData;
+    private final LayerCache baseLayer = new LayerCache(), heatmapLayer = new LayerCache(), gridLayer = new LayerCache(),
+            boundaryLayer = new LayerCache(), pointLayer = new LayerCache(), nameLayer = new LayerCache();
+    private BufferedImage back;
+    private final long[] layerNanos = new long[FrameStats.LAYER_COUNT];
+    private int pointsDrawn;
+
+    // Shared with the EDT
+    private final ExecutorService renderThread;
+    private final AtomicReference<Scene> pending = new AtomicReference<>();
+    private Scene requested;
+    private BufferedImage front;
+    private Scene frontScene;
+    private volatile PointClusters.Level frontClusters;
+
+    /**
+     * Constructor for FrameRenderer
+     * @param mapImage Base map image, or null if there is none
+     * @param cityBoundaryManager Boundaries to draw; only read
+     * @param mapSize Size of the map in pixels
+     * @param nameMetrics Metrics of NAME_FONT
+     * @param stats Receives the layer timings of every frame
+     * @param onFrame Called on the render thread after a new frame is ready
+     */
+    public FrameRenderer(BufferedImage mapImage, CityBoundaryManager cityBoundaryManager, Dimension mapSize,
+                         FontMetrics nameMetrics, FrameStats stats, Runnable onFrame) {
+        this(mapImage != null ? new TiledImage(mapImage, TILE_CACHE_BYTES) : null, cityBoundaryManager, mapSize,
+                nameMetrics, stats, onFrame);
+    }
+
+    /**
+     * Constructor for FrameRenderer drawing the base map from a tile pyramid it may share with other renderers
+     * @param mapTiles Tile pyramid of the base map, or null if there is none
+     * @param cityBoundaryManager Boundaries to draw; only read
+     * @param mapSize Size of the map in pixels
+     * @param nameMetrics Metrics of NAME_FONT
+     * @param stats Receives the layer timings of every frame
+     * @param onFrame Called on the render thread after a new frame is ready
+     */
+    public FrameRenderer(TiledImage mapTiles, CityBoundaryManager cityBoundaryManager, Dimension mapSize,
+                         FontMetrics nameMetrics, FrameStats stats, Runnable onFrame) {
+        this.mapTiles = mapTiles;
+        this.cityBoundaryManager = cityBoundaryManager;
+        this.nameMetrics = nameMetrics;
+        this.stats = stats;
+        this.onFrame = onFrame;
+        this.pointIndex = new PointIndex(people, mapSize.width, mapSize.height, POINT_CELL_SIZE);
+        this.densityGrid = new DensityGrid(people, mapSize.width, mapSize.height);
+        this.labelPlacer = new LabelPlacer(people, NAME_FONT, nameMetrics, mapSize.width, mapSize.height);
+        people.addPersonStoreListener(new PersonStoreListener() {
+            @Override
+            public void personAdded(int row) {
+                pointsVersion++;
+            }
+
+            @Override
+            public void personUpdated(int row, int oldX, int oldY) {
+                if (people.getX(row) != oldX || people.getY(row) != oldY) pointsVersion++;
+            }
+
+            @Override
+            public void personRemoved(int row, int oldX, int oldY) {
+                pointsVersion++;
+            }
+
+            @Override
+            public void peopleReloaded() {
+                pointsVersion++;
+            }
+        });
+        this.renderThread = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "map-renderer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Asks for a frame of a scene; does nothing if that scene was the last one asked for
+     * @param scene Scene to render
+     */
+    public synchronized void request(Scene scene) {
+        if (scene.equals(requested)) {
+            return;
+        }
+        requested = scene;
+        if (pending.getAndSet(scene) == null) {
+            renderThread.execute(this::renderPending);
+        }
+    }
+
+    private void renderPending() {
+        Scene scene = pending.getAndSet(null);
+        if (scene == null) {
+            return;
+        }
+        try {
+            if (back == null || back.getWidth() != Math.max(1, scene.width) || back.getHeight() != Math.max(1, scene.height)) {
+                back = new BufferedImage(Math.max(1, scene.width), Math.max(1, scene.height), BufferedImage.TYPE_INT_ARGB_PRE);
+            }
+            Graphics2D g = back.createGraphics();
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(0, 0, back.getWidth(), back.getHeight());
+            g.setComposite(AlphaComposite.SrcOver);
+            PointClusters.Level level = render(g, scene);
+            g.dispose();
+            swap(scene, level);
+            stats.recordFrame(layerNanos, pointsDrawn);
+        } catch (RuntimeException e) {
+            System.out.println("Error rendering map frame.");
+            e.printStackTrace();
+        }
+        onFrame.run();
+    }
+
+    private synchronized void swap(Scene scene, PointClusters.Level level) {
+        BufferedImage shown = front;
+        front = back;
+        frontScene = scene;
+        frontClusters = level;
+        back = shown;
+    }
+
+    /**
+     * Blits the latest frame. If it was rendered for a different view than the current one, it is
+     * moved and scaled to where the current view puts the map, until the frame for the current view is ready.
+     * @param g Graphics in device space
+     * @param current The scene being shown
+     */
+    public synchronized void drawLatest(Graphics2D g, Scene current) {
+        if (front == null) {
+            return;
+        }
+        if (frontScene.offsetX == current.offsetX && frontScene.offsetY == current.offsetY && frontScene.scale == current.scale) {
+            g.drawImage(front, 0, 0, null);
+            return;
+        }
+        double k = current.scale / frontScene.scale;
+        AffineTransform transform = AffineTransform.getTranslateInstance(current.offsetX - frontScene.offsetX * k,
+                current.offsetY - frontScene.offsetY * k);
+        transform.scale(k, k);
+        g.drawImage(front, transform, null);
+    }
+
+    /**
+     * Renders a scene on the calling thread into a new opaque image, e.g. for headless export.
+     * The render state is confined to one thread, so an instance used this way must only ever be
+     * used from that thread and never be asked for frames with request.
+     * @param scene Scene to render
+     * @param background Color under the layers, or null for a transparent image
+     * @return The rendered image
+     */
+    public BufferedImage renderImage(Scene scene, Color background) {
+        BufferedImage image = new BufferedImage(Math.max(1, scene.width), Math.max(1, scene.height),
+                background != null ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        if (background != null) {
+            g.setColor(background);
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        }
+        render(g, scene);
+        g.dispose();
+        stats.recordFrame(layerNanos, pointsDrawn);
+        return image;
+    }
+
+    /**
+     * Getter for the clusters drawn in the latest frame
+     * @return The cluster level drawn, or null if points were drawn one by one
+     */
+    public PointClusters.Level getDisplayedClusters() {
+        return frontClusters;
+    }
+
+    /**
+     * Draws a scene's layers, rendering those whose view or data changed since they were last drawn.
+     * Must be called on the render thread.
+     * @param g2d Graphics in device space
+     * @param scene Scene to draw
+     * @return The cluster level drawn, or null if points were drawn one by one
+     */
+    private PointClusters.Level render(Graphics2D g2d, Scene scene) {
+        loadedData = StoreChanges.catchUp(people, loadedData, scene.data);
+        int width = scene.width, height = scene.height;
+        double scale = scene.scale;
+        List<Object> view = List.of(width, height, scene.offsetX, scene.offsetY, scale);
+        Arrays.fill(layerNanos, 0);
+        long start = System.nanoTime();
+        if (mapTiles != null && scene.shows(Scene.MAP)) {
+            baseLayer.draw(g2d, width, height, view, g -> {
+                applyTransformations(g, scene);
+                mapTiles.draw(g, scale);
+            });
+        }
+        start = lap(FrameStats.MAP, start);
+        if (scene.shows(Scene.HEATMAP)) {
+            heatmapLayer.draw(g2d, width, height, List.of(view, densityGrid.getVersion(), scene.gridSize), g -> {
+                applyTransformations(g, scene);
+                densityGrid.draw(g, scene.gridSize);
+            });
+        }
+        start = lap(FrameStats.HEATMAP, start);
+        if (scene.shows(Scene.GRID)) {
+            gridLayer.draw(g2d, width, height, List.of(view, scene.gridSize, scene.gridWidth, scene.gridHeight), g -> {
+                applyTransformations(g, scene);
+                GridOverlay.drawGrid(g, scene.gridSize, scene.gridWidth, scene.gridHeight);
+            });
+        }
+        start = lap(FrameStats.GRID, start);
+        if (scene.shows(Scene.BOUNDARIES)) {
+            boundaryLayer.draw(g2d, width, height, view, g -> {
+                applyTransformations(g, scene);
+                cityBoundaryManager.drawBoundaries(g);
+            });
+        }
+        start = lap(FrameStats.BOUNDARIES, start);
+        PointClusters.Level level = null;
+        if (!scene.shows(Scene.POINTS)) {
+            pointsDrawn = 0;
+        } else {
+            PointClusters.Level shown = level = clusterLevel(scene);
+            // The count of the last render stays valid while the layer is reused
+            pointLayer.draw(g2d, width, height, List.of(view, pointsVersion, scene.shows(Scene.CLUSTERS)), g -> {
+                pointsDrawn = 0;
+                if (shown != null) {
+                    drawClusters(g, shown, scene);
+                    return;
+                }
+                applyTransformations(g, scene);
+                drawPlotPoints(g, scene);
+            });
+        }
+        start = lap(FrameStats.POINTS, start);
+        if (scene.shows(Scene.NAMES)) {
+            nameLayer.draw(g2d, width, height, List.of(view, people.getVersion()), g -> drawNames(g, scene));
+        }
+        lap(FrameStats.NAMES, start);
+        return level;
+    }
+
+    // Record the time since start for a layer; returns the current time
+    private long lap(int layer, long start) {
+        long now = System.nanoTime();
+        layerNanos[layer] = now - start;
+        return now;
+    }
+
+    // Apply a scene's view transformation to graphics
+    private static void applyTransformations(Graphics2D g2d, Scene scene) {
+        g2d.translate(scene.offsetX, scene.offsetY);
+        g2d.scale(scene.scale, scene.scale);
+    }
+
+    // Get the part of the map that is in view, in model coordinates
+    private static Rectangle visibleModelRect(Scene scene) {
+        int x = (int) Math.floor(-scene.offsetX / scene.scale);
+        int y = (int) Math.floor(-scene.offsetY / scene.scale);
+        return new Rectangle(x, y, (int) Math.ceil(scene.width / scene.scale) + 1, (int) Math.ceil(scene.height / scene.scale) + 1);
+    }
+
+    // Draw the plot points in the visible area
+    private void drawPlotPoints(Graphics g, Scene scene) {
+        g.setColor(Color.RED);
+        Rectangle visible = visibleModelRect(scene);
+        visible.grow(5, 5);  // Ovals are drawn up and left of their point
+        pointIndex.query(visible, i -> {
+            g.fillOval(people.getX(i) - 5, people.getY(i) - 5, 5, 5);
+            pointsDrawn++;
+        });
+    }
+
+    // Get the cluster level for a scene, or null if points are drawn one by one; clusters are rebuilt
+    // when points were added, moved or removed, not when only names changed
+    private PointClusters.Level clusterLevel(Scene scene) {
+        if (!scene.shows(Scene.CLUSTERS)) return null;
+        if (clusters == null || clustersVersion != pointsVersion) {
+            clusters = new PointClusters(people, CLUSTER_FINEST_CELL, CLUSTER_LEVELS);
+            clustersVersion = pointsVersion;
+        }
+        return clusters.levelFor(scene.scale, CLUSTER_CELL_PIXELS);
+    }
+
+    // Draw clusters as count bubbles in device space; clusters of one person are drawn as plain points
+    private void drawClusters(Graphics2D g, PointClusters.Level level, Scene scene) {
+        double scale = scene.scale;
+        Rectangle visible = visibleModelRect(scene);
+        visible.grow(level.getCellSize(), level.getCellSize());
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setFont(CLUSTER_FONT);
+        FontMetrics metrics = g.getFontMetrics();
+        for (int c = 0; c < level.size(); c++) {
+            double x = level.getCenterX(c), y = level.getCenterY(c);
+            if (!visible.contains(x, y)) continue;
+            double sx = scene.offsetX + x * scale, sy = scene.offsetY + y * scale;
+            int count = level.getCount(c);
+            pointsDrawn++;
+            if (count == 1) {
+                g.setColor(Color.RED);
+                g.fill(new Ellipse2D.Double(sx - 5 * scale, sy - 5 * scale, 5 * scale, 5 * scale));
+                continue;
+            }
+            double r = clusterRadius(count);
+            g.setColor(CLUSTER_FILL);
+            g.fill(new Ellipse2D.Double(sx - r, sy - r, 2 * r, 2 * r));
+            String label = count < 10000 ? Integer.toString(count) : (count / 1000) + "k";
+            g.setColor(Color.WHITE);
+            g.drawString(label, (float) (sx - metrics.stringWidth(label) / 2.0), (float) (sy + metrics.getAscent() / 2.0 - 1));
+        }
+    }
+
+    /**
+     * Radius in device pixels of the bubble for a cluster
+     * @param count Number of people in the cluster
+     * @return Radius
+     */
+    static double clusterRadius(int count) {
+        return 10 + 4 * Math.log10(count);
+    }
+
+    // Draw the names that fit at the scene's zoom in device space, for the people in the visible area
+    private void drawNames(Graphics2D g, Scene scene) {
+        double scale = scene.scale;
+        byte[] placement = labelPlacer.place(scale);
+        g.setColor(Color.RED);
+        Rectangle visible = visibleModelRect(scene);
+        // Names sit left or right of their point and reach a line height above and below it
+        int margin = (int) Math.ceil(NAME_MARGIN / scale), lineHeight = (int) Math.ceil(nameMetrics.getHeight() / scale);
+        visible.grow(margin, lineHeight);
+        pointIndex.query(visible, i -> {
+            if (placement[i] != LabelPlacer.HIDDEN) {
+                labelPlacer.draw(g, i, placement[i], scene.offsetX + people.getX(i) * scale, scene.offsetY + people.getY(i) * scale, scale);
+            }
+        });
+    }
+}
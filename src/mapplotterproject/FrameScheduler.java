@@ -0,0 +1,84 @@
+package mapplotterproject;
+
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.awt.GraphicsDevice;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.util.function.Consumer;
+
+/**
+ * FrameScheduler class
+ * Coalesces repaint requests into at most one repaint per display refresh. Requests can come from
+ * any thread; their areas are merged, and the merged area is handed to the painter on the EDT as soon
+ * as a refresh interval has passed since the previous repaint. A request after an idle period is
+ * served right away, so pacing only adds latency when requests arrive faster than the display shows them.
+ */
+public class FrameScheduler {
+    private static final int DEFAULT_REFRESH_RATE = 60;
+
+    private final Consumer<Rectangle> painter;
+    private final long frameNanos;
+    private final Timer timer;
+
+    private Rectangle dirty;
+    private boolean scheduled;
+    private long lastFrame;
+
+    /**
+     * Constructor for FrameScheduler
+     * @param painter Repaints an area; called on the EDT
+     */
+    public FrameScheduler(Consumer<Rectangle> painter) {
+        this.painter = painter;
+        this.frameNanos = 1_000_000_000L / refreshRate();
+        this.timer = new Timer(0, e -> fire());
+        this.timer.setRepeats(false);
+    }
+
+    /**
+     * Gets the refresh rate of the default screen, or 60 Hz if it is unknown
+     */
+    private static int refreshRate() {
+        if (GraphicsEnvironment.isHeadless()) {
+            return DEFAULT_REFRESH_RATE;
+        }
+        GraphicsDevice device = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice();
+        int rate = device.getDisplayMode().getRefreshRate();
+        return rate > 0 ? rate : DEFAULT_REFRESH_RATE;
+    }
+
+    /**
+     * Asks for an area to be repainted with the next frame
+     * @param area Area to repaint
+     */
+    public synchronized void request(Rectangle area) {
+        dirty = dirty == null ? area : dirty.union(area);
+        if (scheduled) {
+            return;
+        }
+        scheduled = true;
+        long wait = lastFrame + frameNanos - System.nanoTime();
+        SwingUtilities.invokeLater(() -> {
+            if (wait <= 0) {
+                fire();
+            } else {
+                timer.setInitialDelay((int) Math.max(1, wait / 1_000_000));
+                timer.restart();
+            }
+        });
+    }
+
+    private void fire() {
+        Rectangle area;
+        synchronized (this) {
+            area = dirty;
+            dirty = null;
+            scheduled = false;
+            lastFrame = System.nanoTime();
+        }
+        if (area != null) {
+            painter.accept(area);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package mapplotterproject;
+
+import java.util.Arrays;
+
+/**
+ * FrameStats class
+ * Ring buffer of the most recent frame timings, to spot rendering regressions under load.
+ * Each rendered frame records the time spent on every layer and how many points it drew;
+ * the EDT adds the time it spent blitting the frame and drawing the overlays on top of it,
+ * and the time of every paint, from which the frame rate is taken.
+ */
+public class FrameStats {
+    // Layers timed per frame
+    public static final int MAP = 0, HEATMAP = 1, GRID = 2, BOUNDARIES = 3, POINTS = 4, NAMES = 5, OVERLAYS = 6;
+    public static final int LAYER_COUNT = 7;
+    private static final String[] LAYER_NAMES = {"map", "heat", "grid", "bounds", "points", "names", "overlay"};
+    private static final int CAPACITY = 240;
+    // Frames older than this do not count towards the frame rate
+    private static final long FPS_WINDOW_NANOS = 1_000_000_000L;
+
+    // Nanoseconds per layer of each frame, frame after frame
+    private final long[] layerNanos = new long[CAPACITY * LAYER_COUNT];
+    private final int[] points = new int[CAPACITY];
+    private int frames, latest = -1;
+    private final long[] paintTimes = new long[CAPACITY];
+    private int paints;
+
+    /**
+     * Records a rendered frame
+     * @param nanos Nanoseconds spent per layer, indexed by the layer constants; OVERLAYS is ignored
+     * @param pointsDrawn Points and cluster bubbles drawn
+     */
+    public synchronized void recordFrame(long[] nanos, int pointsDrawn) {
+        latest = frames++ % CAPACITY;
+        System.arraycopy(nanos, 0, layerNanos, latest * LAYER_COUNT, LAYER_COUNT);
+        layerNanos[latest * LAYER_COUNT + OVERLAYS] = 0;
+        points[latest] = pointsDrawn;
+    }
+
+    /**
+     * Records a paint of the latest frame
+     * @param overlayNanos Nanoseconds spent blitting the frame and drawing overlays
+     */
+    public synchronized void recordPaint(long overlayNanos) {
+        paintTimes[paints++ % CAPACITY] = System.nanoTime();
+        if (latest >= 0) {
+            int slot = latest * LAYER_COUNT + OVERLAYS;
+            layerNanos[slot] = Math.max(layerNanos[slot], overlayNanos);
+        }
+    }
+
+    /**
+     * Gets the paints per second over the last second
+     * @return Frame rate
+     */
+    public synchronized double getFps() {
+        long now = System.nanoTime();
+        int recent = 0;
+        for (int i = 0; i < Math.min(paints, CAPACITY); i++) {
+            if (now - paintTimes[i] <= FPS_WINDOW_NANOS) recent++;
+        }
+        return recent * 1e9 / FPS_WINDOW_NANOS;
+    }
+
+    /**
+     * Gets a percentile of the total frame time over the recorded frames
+     * @param percentile Between 0 and 100
+     * @return Frame time in milliseconds, or 0 if no frame was recorded
+     */
+    public synchronized double getFrameMillis(double percentile) {
+        int count = Math.min(frames, CAPACITY);
+        if (count == 0) {
+            return 0;
+        }
+        long[] totals = new long[count];
+        for (int f = 0; f < count; f++) {
+            for (int layer = 0; layer < LAYER_COUNT; layer++) {
+                totals[f] += layerNanos[f * LAYER_COUNT + layer];
+            }
+        }
+        Arrays.sort(totals);
+        int index = (int) Math.min(count - 1, Math.ceil(percentile / 100 * count) - 1);
+        return totals[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * Gets the mean time of a layer over the recorded frames
+     * @param layer Layer constant
+     * @return Milliseconds
+     */
+    public synchronized double getLayerMillis(int layer) {
+        int count = Math.min(frames, CAPACITY);
+        long sum = 0;
+        for (int f = 0; f < count; f++) {
+            sum += layerNanos[f * LAYER_COUNT + layer];
+        }
+        return count == 0 ? 0 : sum / 1e6 / count;
+    }
+
+    /**
+     * Getter for the points drawn in the latest frame
+     * @return Points and cluster bubbles drawn
+     */
+    public synchronized int getPointsDrawn() {
+        return latest < 0 ? 0 : points[latest];
+    }
+
+    /**
+     * Summarizes the statistics as lines of text for display
+     * @return Frame rate and frame time percentiles, then mean time per layer
+     */
+    public String[] summary() {
+        StringBuilder layers = new StringBuilder();
+        for (int layer = 0; layer < LAYER_COUNT; layer++) {
+            layers.append(String.format("%s %.1f  ", LAYER_NAMES[layer], getLayerMillis(layer)));
+        }
+        return new String[]{
+                String.format("%.0f fps  p50 %.1f ms  p99 %.1f ms  %,d points",
+                        getFps(), getFrameMillis(50), getFrameMillis(99), getPointsDrawn()),
+                layers.toString().trim()
+        };
+    }
+}
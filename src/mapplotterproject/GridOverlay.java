@@ -47,19 +47,27 @@ public class GridOverlay extends JPanel {
      * @param g2d Graphics2D object
      */
     private void drawGrid(Graphics2D g2d) {
-        setupGraphics(g2d);
-        int width = getWidth();
-        int height = getHeight();
+        drawGrid(g2d, gridSize, getWidth(), getHeight());
+    }
 
-        drawVerticalLines(g2d, width, height);
-        drawHorizontalLines(g2d, width, height);
+    /**
+     * Draw the grid with coordinates over an area without reading any component state, e.g. from a render thread
+     * @param g2d Graphics2D object
+     * @param size Grid size in pixels
+     * @param width Width of the area
+     * @param height Height of the area
+     */
+    public static void drawGrid(Graphics2D g2d, int size, int width, int height) {
+        setupGraphics(g2d);
+        drawVerticalLines(g2d, width, height, size);
+        drawHorizontalLines(g2d, width, height, size);
     }
 
     /**
      * Set up graphics properties for drawing
      * @param g2d Graphics2D object
      */
-    private void setupGraphics(Graphics2D g2d) {
+    private static void setupGraphics(Graphics2D g2d) {
         g2d.setColor(Color.BLACK);
         g2d.setStroke(new BasicStroke(1));
     }
@@ -69,9 +77,10 @@ public class GridOverlay extends JPanel {
      * @param g2d Graphics2D object
      * @param width Width of the overlay
      * @param height Height of the overlay
+     * @param size Grid size in pixels
      */
-    private void drawVerticalLines(Graphics2D g2d, int width, int height) {
-        for (int x = 0; x <= width; x += gridSize) {
+    private static void drawVerticalLines(Graphics2D g2d, int width, int height, int size) {
+        for (int x = 0; x <= width; x += size) {
             g2d.drawLine(x, 0, x, height);
             g2d.drawString(Integer.toString(x), x + 5, 15);
         }
@@ -82,9 +91,10 @@ public class GridOverlay extends JPanel {
      * @param g2d Graphics2D object
      * @param width Width of the overlay
      * @param height Height of the overlay
+     * @param size Grid size in pixels
      */
-    private void drawHorizontalLines(Graphics2D g2d, int width, int height) {
-        for (int y = 0; y <= height; y += gridSize) {
+    private static void drawHorizontalLines(Graphics2D g2d, int width, int height, int size) {
+        for (int y = 0; y <= height; y += size) {
             g2d.drawLine(0, y, width, y);
             g2d.drawString(Integer.toString(y), 5, y - 5);
         }
@@ -99,6 +109,14 @@ public class GridOverlay extends JPanel {
         repaint();
     }
 
+    /**
+     * Get the grid size
+     * @return Grid size in pixels
+     */
+    public int getGridSize() {
+        return gridSize;
+    }
+
     /**
      * Override setSize to ensure repaint on size change
      * @param dimension New dimension of the overlay
@@ -0,0 +1,243 @@
+package mapplotterproject;
+
+import java.awt.*;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LabelPlacer class
+ * Decides which names fit on the map at a zoom level. Labels keep their size on screen, so the
+ * further out the view, the fewer fit. Each label tries the right of its point first, then the left;
+ * it is dropped if both collide with a label placed before it. Collisions are tested against a
+ * spatial hash of the placed labels, so placement is linear in the number of people.
+ *
+ * Placement is computed for the whole map at quantized zoom levels (four per doubling, rounded down
+ * so labels only get more room at the actual scale) and cached per level until the data changes.
+ * Panning therefore never re-places labels. Glyph vectors of drawn names are cached as well, per
+ * person id and least recently drawn first out; a hit is checked against the name in the store's
+ * text buffer, so drawing a cached label allocates no string and a renamed person gets new glyphs.
+ */
+public class LabelPlacer {
+    public static final byte HIDDEN = 0, RIGHT = 1, LEFT = 2;
+
+    // Gap between a point and its label in device pixels
+    private static final int GAP = 10;
+    private static final int HASH_CELL = 64;
+    private static final int MAX_HASH_CELLS = 1 << 22;
+    private static final int CACHED_LEVELS = 8;
+    private static final int CACHED_GLYPHS = 20000;
+
+    private final PersonStore people;
+    private final Font font;
+    private final FontMetrics metrics;
+    private final FontRenderContext renderContext;
+    private final int mapWidth, mapHeight;
+
+    private int placementVersion = -1;
+    private final LinkedHashMap<Integer, byte[]> placements = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+            return size() > CACHED_LEVELS;
+        }
+    };
+    private final LinkedHashMap<Integer, Glyphs> glyphs = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Glyphs> eldest) {
+            return size() > CACHED_GLYPHS;
+        }
+    };
+
+    /**
+     * Glyph vector of a name, with the name it was made from
+     */
+    private static final class Glyphs {
+        final char[] name;
+        final GlyphVector vector;
+
+        Glyphs(char[] name, GlyphVector vector) {
+            this.name = name;
+            this.vector = vector;
+        }
+    }
+
+    // Spatial hash of placed labels: boxes, and per cell a chain of entries through entryNext
+    private int[] cellHead = new int[0];
+    private float[] boxX0 = new float[256], boxY0 = new float[256], boxX1 = new float[256], boxY1 = new float[256];
+    private int boxCount;
+    private int[] entryBox = new int[256], entryNext = new int[256];
+    private int entryCount;
+
+    /**
+     * Constructor for LabelPlacer
+     * @param people Store holding the names
+     * @param font Font of the labels, in device pixels
+     * @param metrics Metrics of the font
+     * @param mapWidth Width of the map in pixels
+     * @param mapHeight Height of the map in pixels
+     */
+    public LabelPlacer(PersonStore people, Font font, FontMetrics metrics, int mapWidth, int mapHeight) {
+        this.people = people;
+        this.font = font;
+        this.metrics = metrics;
+        this.renderContext = new FontRenderContext(null, false, false);
+        this.mapWidth = mapWidth;
+        this.mapHeight = mapHeight;
+    }
+
+    /**
+     * Gets the quantized zoom level placement is computed for
+     * @param scale Device pixels per map pixel
+     * @return Level; the level's scale is 2^(level / 4)
+     */
+    public static int levelOf(double scale) {
+        return (int) Math.floor(4 * Math.log(scale) / Math.log(2) + 1e-9);
+    }
+
+    /**
+     * Gets the placement of every row at a scale, computing it if the level is not cached
+     * @param scale Device pixels per map pixel
+     * @return Placement per row: HIDDEN, RIGHT or LEFT
+     */
+    public byte[] place(double scale) {
+        if (placementVersion != people.getVersion()) {
+            placements.clear();
+            placementVersion = people.getVersion();
+        }
+        int level = levelOf(scale);
+        byte[] placement = placements.get(level);
+        if (placement == null) {
+            placement = computePlacement(Math.pow(2, level / 4.0));
+            placements.put(level, placement);
+        }
+        return placement;
+    }
+
+    /**
+     * Places labels greedily in row order at a scale
+     */
+    private byte[] computePlacement(double scale) {
+        byte[] placement = new byte[people.size()];
+        int columns = (int) Math.ceil(mapWidth * scale / HASH_CELL) + 1;
+        int rows = (int) Math.ceil(mapHeight * scale / HASH_CELL) + 1;
+        int cellSize = HASH_CELL;
+        while ((long) columns * rows > MAX_HASH_CELLS) {
+            cellSize *= 2;
+            columns = (columns + 1) / 2;
+            rows = (rows + 1) / 2;
+        }
+        if (cellHead.length < columns * rows) {
+            cellHead = new int[columns * rows];
+        }
+        Arrays.fill(cellHead, 0, columns * rows, -1);
+        boxCount = entryCount = 0;
+
+        char[] text = people.getTextBuffer();
+        int ascent = metrics.getAscent(), descent = metrics.getDescent();
+        for (int row = 0; row < people.size(); row++) {
+            if (!people.isPlaced(row) || people.getNameLength(row) == 0) continue;
+            float sx = (float) (people.getX(row) * scale), sy = (float) (people.getY(row) * scale);
+            int width = metrics.charsWidth(text, people.getNameStart(row), people.getNameLength(row));
+            float y0 = sy - ascent, y1 = sy + descent;
+
+            float rightX = sx + GAP;
+            if (tryPlace(rightX, y0, rightX + width, y1, cellSize, columns, rows)) {
+                placement[row] = RIGHT;
+                continue;
+            }
+            float leftX = leftLabelX(sx, scale, width);
+            if (tryPlace(leftX, y0, leftX + width, y1, cellSize, columns, rows)) {
+                placement[row] = LEFT;
+            }
+        }
+        return placement;
+    }
+
+    /**
+     * Gets the left edge of a label placed left of its point, clear of the point's oval
+     * @param sx Point's x-coordinate in device pixels
+     * @param scale Device pixels per map pixel
+     * @param width Label width in device pixels
+     */
+    private static float leftLabelX(float sx, double scale, int width) {
+        return (float) (sx - 5 * scale) - GAP / 2f - width;
+    }
+
+    /**
+     * Adds a label box to the hash if it overlaps no box placed before
+     * @return True if the box was placed
+     */
+    private boolean tryPlace(float x0, float y0, float x1, float y1, int cellSize, int columns, int rows) {
+        int c0 = clamp((int) Math.floor(x0 / cellSize), columns), c1 = clamp((int) Math.floor(x1 / cellSize), columns);
+        int r0 = clamp((int) Math.floor(y0 / cellSize), rows), r1 = clamp((int) Math.floor(y1 / cellSize), rows);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                for (int entry = cellHead[r * columns + c]; entry >= 0; entry = entryNext[entry]) {
+                    int box = entryBox[entry];
+                    if (x0 < boxX1[box] && boxX0[box] < x1 && y0 < boxY1[box] && boxY0[box] < y1) {
+                        return false;
+                    }
+                }
+            }
+        }
+        int box = addBox(x0, y0, x1, y1);
+        for (int r = r0; r <= r1; r++) {
+            for (int c = c0; c <= c1; c++) {
+                int cell = r * columns + c;
+                if (entryCount == entryBox.length) {
+                    entryBox = Arrays.copyOf(entryBox, entryCount * 2);
+                    entryNext = Arrays.copyOf(entryNext, entryCount * 2);
+                }
+                entryBox[entryCount] = box;
+                entryNext[entryCount] = cellHead[cell];
+                cellHead[cell] = entryCount++;
+            }
+        }
+        return true;
+    }
+
+    private int addBox(float x0, float y0, float x1, float y1) {
+        if (boxCount == boxX0.length) {
+            int capacity = boxCount * 2;
+            boxX0 = Arrays.copyOf(boxX0, capacity);
+            boxY0 = Arrays.copyOf(boxY0, capacity);
+            boxX1 = Arrays.copyOf(boxX1, capacity);
+            boxY1 = Arrays.copyOf(boxY1, capacity);
+        }
+        boxX0[boxCount] = x0;
+        boxY0[boxCount] = y0;
+        boxX1[boxCount] = x1;
+        boxY1[boxCount] = y1;
+        return boxCount++;
+    }
+
+    private static int clamp(int value, int count) {
+        return Math.max(0, Math.min(count - 1, value));
+    }
+
+    /**
+     * Draws a placed label
+     * @param g Graphics in device space
+     * @param row Row of the person
+     * @param placement RIGHT or LEFT
+     * @param sx Point's x-coordinate in device pixels
+     * @param sy Point's y-coordinate in device pixels
+     * @param scale Device pixels per map pixel
+     */
+    public void draw(Graphics2D g, int row, byte placement, double sx, double sy, double scale) {
+        char[] text = people.getTextBuffer();
+        int start = people.getNameStart(row), length = people.getNameLength(row);
+        Glyphs cached = glyphs.get(people.getId(row));
+        if (cached == null || !Arrays.equals(cached.name, 0, cached.name.length, text, start, start + length)) {
+            char[] name = Arrays.copyOfRange(text, start, start + length);
+            cached = new Glyphs(name, font.createGlyphVector(renderContext, name));
+            glyphs.put(people.getId(row), cached);
+        }
+        GlyphVector vector = cached.vector;
+        float x = placement == RIGHT ? (float) sx + GAP
+                : leftLabelX((float) sx, scale, metrics.charsWidth(text, start, length));
+        g.drawGlyphVector(vector, x, (float) sy);
+    }
+}
@@ -0,0 +1,44 @@
+package mapplotterproject;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.function.Consumer;
+
+/**
+ * LayerCache class
+ * Off-screen image of one map layer at the frame's size. The layer is only rendered again
+ * when its key changes; the key holds everything the layer's pixels depend on, such as the view
+ * transform and the version of the layer's data. Otherwise drawing the layer is a single blit.
+ */
+public class LayerCache {
+    private BufferedImage image;
+    private Object key;
+
+    /**
+     * Draws the layer, rendering it first if it is missing, the wrong size or out of date
+     * @param target Graphics to draw to, in device space
+     * @param width Width of the layer in device pixels
+     * @param height Height of the layer in device pixels
+     * @param key Everything the layer depends on; compared with equals
+     * @param painter Renders the layer into a cleared, transparent image
+     */
+    public void draw(Graphics2D target, int width, int height, Object key, Consumer<Graphics2D> painter) {
+        width = Math.max(1, width);
+        height = Math.max(1, height);
+        if (image == null || image.getWidth() != width || image.getHeight() != height) {
+            image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+            this.key = null;
+        }
+        if (!key.equals(this.key)) {
+            Graphics2D g = image.createGraphics();
+            g.setComposite(AlphaComposite.Clear);
+            g.fillRect(0, 0, width, height);
+            g.setComposite(AlphaComposite.SrcOver);
+            g.setClip(0, 0, width, height);
+            painter.accept(g);
+            g.dispose();
+            this.key = key;
+        }
+        target.drawImage(image, 0, 0, null);
+    }
+}
@@ -6,19 +6,17 @@ import javax.swing.event.*;
 import javax.swing.table.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.io.*;
-import java.util.List;
 
 public class ListPanel extends JPanel {
     private JTable table;
-    private DefaultTableModel tableModel;
-    private TableRowSorter<DefaultTableModel> sorter;
+    private PersonTableModel tableModel;
+    private TableRowSorter<PersonTableModel> sorter;
     private JTextField searchField;
     private final MapPlotter mapPlotter;
 
-    public ListPanel(List<String> names, List<String> addresses, List<Point> coordinates, List<String> cities, MapPlotter mapPlotter, GridOverlay gridOverlay) {
+    public ListPanel(PersonTableModel tableModel, MapPlotter mapPlotter, GridOverlay gridOverlay) {
         initializePanel();
-        createTable(names, addresses, coordinates, cities, mapPlotter);
+        createTable(tableModel, mapPlotter);
         createSearchPanel();
         createControlsPanel(mapPlotter, gridOverlay);
         this.mapPlotter = mapPlotter;
@@ -31,57 +29,40 @@ public class ListPanel extends JPanel {
         setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
     }
 
-    private void createTable(List<String> names, List<String> addresses, List<Point> coordinates, List<String> cities, MapPlotter mapPlotter) {
-        String[] columnNames = {"Name", "Address", "City"};
-        Object[][] data = prepareTableData(names, addresses, cities);
-        tableModel = createTableModel(data, columnNames);
+    private void createTable(PersonTableModel tableModel, MapPlotter mapPlotter) {
+        this.tableModel = tableModel;
 
         table = new JTable(tableModel);
         configureTable();
         setupTableSorter(tableModel);
-        addTableSelectionListener(coordinates, mapPlotter);
+        addTableSelectionListener(mapPlotter);
 
         JScrollPane scrollPane = new JScrollPane(table);
         scrollPane.setPreferredSize(new Dimension(400, 400));
         add(scrollPane, BorderLayout.CENTER);
     }
 
-    private Object[][] prepareTableData(List<String> names, List<String> addresses, List<String> cities) {
-        Object[][] data = new Object[names.size()][3];
-        for (int i = 0; i < names.size(); i++) {
-            data[i][0] = names.get(i);
-            data[i][1] = cities.get(i);
-            data[i][2] = addresses.get(i);
-        }
-        return data;
-    }
-
-    private DefaultTableModel createTableModel(Object[][] data, String[] columnNames) {
-        return new DefaultTableModel(data, columnNames) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
-    }
-
     private void configureTable() {
         table.setFont(new Font("Arial", Font.PLAIN, 18));
         table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
     }
 
-    private void setupTableSorter(DefaultTableModel tableModel) {
+    private void setupTableSorter(PersonTableModel tableModel) {
         sorter = new TableRowSorter<>(tableModel);
         table.setRowSorter(sorter);
     }
 
-    private void addTableSelectionListener(List<Point> coordinates, MapPlotter mapPlotter) {
+    private void addTableSelectionListener(MapPlotter mapPlotter) {
         table.getSelectionModel().addListSelectionListener(e -> {
             if (!e.getValueIsAdjusting()) {
                 int row = table.getSelectedRow();
                 if (row >= 0) {
                     int modelIndex = table.convertRowIndexToModel(row);
-                    Point selectedCoordinate = coordinates.get(modelIndex);
+                    Point selectedCoordinate = mapPlotter.getPersonPoint(modelIndex);
+                    if (selectedCoordinate == null) {
+                        mapPlotter.clearHighlightedPoint();  // City unknown, nothing to show on the map
+                        return;
+                    }
                     mapPlotter.zoomToCoordinate(selectedCoordinate);
                     mapPlotter.highlightSelectedPoint(selectedCoordinate);
                 }
@@ -118,7 +99,7 @@ public class ListPanel extends JPanel {
 
             private void filterTable() {
                 String query = searchField.getText();
-                RowFilter<DefaultTableModel, Object> rf = RowFilter.regexFilter("(?i)" + query);
+                RowFilter<PersonTableModel, Object> rf = RowFilter.regexFilter("(?i)" + query);
                 sorter.setRowFilter(rf);
             }
         });
@@ -156,7 +137,7 @@ public class ListPanel extends JPanel {
     }
 
     private JPanel createButtonPanel(MapPlotter mapPlotter) {
-        JPanel buttonPanel = new JPanel(new GridLayout(4, 2, 10, 10));
+        JPanel buttonPanel = new JPanel(new GridLayout(6, 2, 10, 10));
         buttonPanel.setBorder(BorderFactory.createEmptyBorder(10, 0, 0, 0));
 
         JButton addButton = new JButton("Add New Person");
@@ -194,6 +175,26 @@ public class ListPanel extends JPanel {
             ((JButton) e.getSource()).setText(mapPlotter.isCoordinatesVisible() ? "Hide Coordinates" : "Show Coordinates");
         });
 
+        addToggleButton(buttonPanel, "Toggle Clusters", e -> {
+            mapPlotter.toggleClusters();
+            ((JButton) e.getSource()).setText(mapPlotter.isClustersVisible() ? "Hide Clusters" : "Show Clusters");
+        });
+
+        addToggleButton(buttonPanel, "Toggle Heatmap", e -> {
+            mapPlotter.toggleHeatmap();
+            ((JButton) e.getSource()).setText(mapPlotter.isHeatmapVisible() ? "Hide Heatmap" : "Show Heatmap");
+        });
+
+        addToggleButton(buttonPanel, "Toggle CSV Watch", e -> {
+            mapPlotter.toggleWatching();
+            ((JButton) e.getSource()).setText(mapPlotter.isWatching() ? "Stop Watching CSV" : "Watch CSV");
+        });
+
+        addToggleButton(buttonPanel, "Toggle Frame Stats", e -> {
+            mapPlotter.toggleStats();
+            ((JButton) e.getSource()).setText(mapPlotter.isStatsVisible() ? "Hide Frame Stats" : "Show Frame Stats");
+        });
+
         return buttonPanel;
     }
 
@@ -259,10 +260,7 @@ public class ListPanel extends JPanel {
                 JOptionPane.showMessageDialog(null, "All fields must be filled.", "Input Error", JOptionPane.ERROR_MESSAGE);
             } else {
                 inputValid = true;
-                tableModel.addRow(new Object[]{name, city, address});
-                writeToCSV(name, city, address);
-                mapPlotter.loadData();
-                repaint();
+                mapPlotter.addPerson(name, city, address);
             }
         }
     }
@@ -277,14 +275,16 @@ public class ListPanel extends JPanel {
 
         // Convert selected row index from view to model
         int modelRow = table.convertRowIndexToModel(selectedRow);
+        // The CSV can be reloaded while the dialog is open, so hold on to the id rather than the row
+        int id = mapPlotter.getPersonId(modelRow);
+        int idGeneration = mapPlotter.getIdGeneration();
+        String currentName = tableModel.getValueAt(modelRow, 0).toString();
+        String currentCity = tableModel.getValueAt(modelRow, 1).toString();
+        String currentAddress = tableModel.getValueAt(modelRow, 2).toString();
 
         boolean inputValid = false;
 
         while (!inputValid) {
-            String currentName = tableModel.getValueAt(modelRow, 0).toString();
-            String currentCity = tableModel.getValueAt(modelRow, 1).toString();
-            String currentAddress = tableModel.getValueAt(modelRow, 2).toString();
-
             JTextField nameField = new JTextField(currentName);
             JTextField cityField = new JTextField(currentCity);
             JTextField addressField = new JTextField(currentAddress);
@@ -311,14 +311,12 @@ public class ListPanel extends JPanel {
 
             if (newName.isEmpty() || newCity.isEmpty() || newAddress.isEmpty()) {
                 JOptionPane.showMessageDialog(null, "All fields must be filled.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            } else if (!mapPlotter.isCurrentPerson(id, idGeneration)) {
+                showRosterChanged(currentName);
+                return;
             } else {
                 inputValid = true;
-                tableModel.setValueAt(newName, modelRow, 0);
-                tableModel.setValueAt(newCity, modelRow, 1);
-                tableModel.setValueAt(newAddress, modelRow, 2);
-                updateCSV(currentName, newName, newCity, newAddress);
-                mapPlotter.loadData();
-                repaint();
+                mapPlotter.updatePerson(id, newName, newCity, newAddress);
             }
         }
     }
@@ -333,6 +331,8 @@ public class ListPanel extends JPanel {
 
         // Convert selected row index from view to model
         int modelRow = table.convertRowIndexToModel(selectedRow);
+        int id = mapPlotter.getPersonId(modelRow);
+        int idGeneration = mapPlotter.getIdGeneration();
 
         String name = tableModel.getValueAt(modelRow, 0).toString();
 
@@ -344,87 +344,18 @@ public class ListPanel extends JPanel {
                 JOptionPane.WARNING_MESSAGE
         );
 
-        if (response == JOptionPane.YES_OPTION) {
-            tableModel.removeRow(modelRow);
-            removeFromCSV(name);
-
-            mapPlotter.loadData();
-            repaint();
-        }
-    }
-
-    private void writeToCSV(String name, String city, String address) {
-        try (FileWriter fw = new FileWriter("src/resources/addresses.csv", true);
-             BufferedWriter bw = new BufferedWriter(fw);
-             PrintWriter pw = new PrintWriter(bw)) {
-            pw.println(name + "," + city + "," + address);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void removeFromCSV(String name) {
-        File inputFile = new File("src/resources/addresses.csv");
-        File tempFile = new File("src/resources/temp_addresses.csv");
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-             BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))) {
-
-            String line;
-            boolean isHeader = true;
-
-            while ((line = reader.readLine()) != null) {
-                if (isHeader) {
-                    writer.write(line);
-                    writer.newLine();
-                    isHeader = false;
-                    continue;
-                }
-                String[] data = line.split(",");
-                if (data.length == 3 && !data[0].equals(name)) {
-                    writer.write(line);
-                    writer.newLine();
-                }
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (response != JOptionPane.YES_OPTION) {
+            return;
         }
-
-        if (inputFile.delete()) {
-            tempFile.renameTo(inputFile);
+        if (!mapPlotter.isCurrentPerson(id, idGeneration)) {
+            showRosterChanged(name);
+            return;
         }
+        mapPlotter.removePerson(id);
     }
 
-    private void updateCSV(String oldName, String newName, String newCity, String newAddress) {
-        File inputFile = new File("src/resources/addresses.csv");
-        File tempFile = new File("src/resources/temp.csv");
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(inputFile));
-             BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile))) {
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-
-                // If we find the person with the old name, replace the row with updated data
-                if (data[0].equals(oldName)) {
-                    writer.write(newName + "," + newCity + "," + newAddress + "\n");
-                } else {
-                    writer.write(line + "\n");  // Write the line as is if it's not the person being edited
-                }
-            }
-
-        } catch (IOException e) {
-            System.out.println("Error updating the CSV file.");
-            e.printStackTrace();
-        }
-
-        // Rename the temp file to replace the original CSV file
-        if (!inputFile.delete()) {
-            System.out.println("Could not delete original CSV file.");
-        }
-        if (!tempFile.renameTo(inputFile)) {
-            System.out.println("Could not rename temp CSV file.");
-        }
+    private void showRosterChanged(String name) {
+        JOptionPane.showMessageDialog(null, "The roster was reloaded while the dialog was open and " + name
+                + " may have moved or been removed. Please select them again.", "Roster Changed", JOptionPane.WARNING_MESSAGE);
     }
 }
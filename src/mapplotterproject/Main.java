@@ -3,9 +3,34 @@ package mapplotterproject;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
 
 public class Main {
+    private static final String USAGE = "Usage: Main [--serve PORT [--bind-all]]";
+
     public static void main(String[] args) {
+        // Optional query server: --serve PORT, listening on all interfaces instead of loopback with --bind-all
+        int port = -1;
+        boolean bindAll = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--serve") && i + 1 < args.length) {
+                    port = parsePort(args[++i]);
+                } else if (args[i].equals("--bind-all")) {
+                    bindAll = true;
+                } else {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println(USAGE);
+            System.exit(2);
+        }
+        int serverPort = port;
+        boolean serverBindAll = bindAll;
         SwingUtilities.invokeLater(() -> {
             JFrame frame = new JFrame("Map Plotter");
             frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
@@ -18,8 +43,36 @@ public class Main {
             splitPane.setDividerLocation(400);
 
             frame.add(splitPane, BorderLayout.CENTER);
+            frame.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosing(WindowEvent e) {
+                    mapPanel.close();
+                }
+            });
             frame.setSize(1500,800);
             frame.setVisible(true);
+
+            if (serverPort >= 0) {
+                try {
+                    System.out.println("Query server listening on port " + mapPanel.startQueryServer(serverPort, serverBindAll));
+                } catch (IOException e) {
+                    System.out.println("Error starting the query server.");
+                    e.printStackTrace();
+                }
+            }
         });
     }
+
+    // Parse the port of the query server; 0 picks any free port
+    private static int parsePort(String value) {
+        try {
+            int port = Integer.parseInt(value);
+            if (port >= 0 && port <= 65535) {
+                return port;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Malformed port for --serve: " + value);
+    }
 }
@@ -5,12 +5,17 @@ import java.awt.*;
 import java.awt.event.*;
 
 public class MapInteractionHandler {
+    // Scale factor per wheel notch; zooming is multiplicative so deep zoom levels are reachable
+    private static final double WHEEL_ZOOM_FACTOR = 1.1;
+
     // Class variables
     private double scale, minScale, maxScale;
     private int offsetX, offsetY;
     private Point dragStart;
     private final Component mapComponent;
     private int mouseX = -1, mouseY = -1;
+    // Repaints what depends on the mouse position; repaints the whole component unless replaced
+    private Runnable mouseMoveRepaint;
 
     /**
      * Constructor for MapInteractionHandler
@@ -26,6 +31,7 @@ public class MapInteractionHandler {
         this.maxScale = maxScale;
         this.offsetX = 0;
         this.offsetY = 0;
+        this.mouseMoveRepaint = mapComponent::repaint;
 
         setupMouseListeners();
     }
@@ -65,9 +71,9 @@ public class MapInteractionHandler {
 
         // Adjust scale based on wheel rotation
         if (e.getWheelRotation() < 0) {
-            scale = Math.min(scale + 0.1, maxScale);
+            scale = Math.min(scale * WHEEL_ZOOM_FACTOR, maxScale);
         } else {
-            scale = Math.max(scale - 0.1, minScale);
+            scale = Math.max(scale / WHEEL_ZOOM_FACTOR, minScale);
         }
 
         // Adjust offsets to zoom towards cursor position
@@ -107,7 +113,15 @@ public class MapInteractionHandler {
     private void updateMousePosition(MouseEvent e) {
         mouseX = e.getX();
         mouseY = e.getY();
-        mapComponent.repaint();
+        mouseMoveRepaint.run();
+    }
+
+    /**
+     * Sets what to repaint when the mouse moves, so a component can repaint only the parts that follow the cursor
+     * @param mouseMoveRepaint Called after the stored mouse position changed
+     */
+    public void setMouseMoveRepaint(Runnable mouseMoveRepaint) {
+        this.mouseMoveRepaint = mouseMoveRepaint;
     }
 
     /**
@@ -154,6 +168,19 @@ public class MapInteractionHandler {
         mapComponent.repaint();
     }
 
+    /**
+     * Sets zoom and offset together with a single repaint
+     * @param scale Zoom scale; clamped to the allowed range
+     * @param offsetX Horizontal offset
+     * @param offsetY Vertical offset
+     */
+    public void setView(double scale, int offsetX, int offsetY) {
+        this.scale = Math.max(minScale, Math.min(scale, maxScale));
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        mapComponent.repaint();
+    }
+
     public double getMaxScale() {
         return maxScale;
     }
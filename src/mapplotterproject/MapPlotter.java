@@ -7,72 +7,623 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.*;
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 public class MapPlotter extends JPanel {
+    private static final String CSV_PATH = "src/resources/addresses.csv";
+    private static final String JOURNAL_PATH = "src/resources/addresses.journal";
+    private static final String SNAPSHOT_PATH = "src/resources/addresses.mpsnap";
+    private static final String BOUNDARIES_PATH = "src/resources/boundaries.geojson";
+    private static final String MAP_IMAGE_PATH = "src/resources/caviteMapCity.png";
+    private static final Font COORDINATE_FONT = new Font("Arial", Font.BOLD, 14);
+    private static final Font STATS_FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+    private static final Color STATS_BACKGROUND = new Color(0, 0, 0, 170);
+    private static final double MAX_ZOOM = 32.0;
+    // Redraws of a placement that landed outside its city before it is kept anyway
+    private static final int MAX_PLACEMENT_ATTEMPTS = 16;
+    // Map pixels kept around a cluster's extent when zooming to it
+    private static final int ZOOM_PADDING = 20;
+    // Removals above this are done in one pass over the store instead of one array shift each
+    private static final int BULK_REMOVE_THRESHOLD = 32;
+
     // Class variables
     private BufferedImage mapImage;
-    private List<Point> coordinates;
-    private List<String> names, addresses, cities;
-    private boolean showNames, showPoints, showGrid, showBoundaries, showCoordinates;
+    private PersonStore people;
+    // Layers are drawn off the EDT from scenes, which carry the store changes recorded here
+    private FrameRenderer frameRenderer;
+    private StoreChanges.Recorder sceneChanges;
+    // Columns of the last store version copied for the tile exporter
+    private PersonStore.Columns copiedData;
+    private boolean showNames, showPoints, showGrid, showBoundaries, showCoordinates, showClusters, showHeatmap, showStats;
     private Point highlightedPoint;
+    // Device-space area of the coordinate readout as last painted
+    private Rectangle paintedCoordinates;
     private GridOverlay gridOverlay;
     private MapInteractionHandler interactionHandler;
+    private CameraAnimator cameraAnimator;
     private CityBoundaryManager cityBoundaryManager;
+    private final CsvLoader csvLoader = new CsvLoader();
+    private int unresolvedCount;
+    private final PlacementCache placementCache = new PlacementCache();
+    private final EditJournal journal = new EditJournal(Paths.get(CSV_PATH), Paths.get(JOURNAL_PATH));
+    private final CsvWatcher csvWatcher = new CsvWatcher(Paths.get(CSV_PATH), this::reloadChangedCsv);
+    // Repaints are paced to the display's refresh rate; the super constructor repaints before this is set
+    private final FrameScheduler frameScheduler = new FrameScheduler(this::repaintNow);
+    private final FrameStats frameStats = new FrameStats();
+    // Writes snapshots one at a time; snapshotVersion is the store version of the last one taken
+    private final ExecutorService snapshotWriter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "snapshot-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int snapshotVersion = -1;
+    private QueryServer queryServer;
+    // Loaded only to be read: nothing on disk is changed and the CSV is not watched
+    private final boolean readOnly;
 
     // Constructor
     public MapPlotter() {
+        this(false);
+    }
+
+    private MapPlotter(boolean readOnly) {
+        this.readOnly = readOnly;
         initializeComponents();
-        loadData();
         setupInteraction();
+        loadData();
         setPreferredSize(new Dimension(mapImage.getWidth(), mapImage.getHeight()));
+        if (!readOnly) {
+            // City lookups use the classifier until the mask is ready
+            cityBoundaryManager.buildCityMaskInBackground(mapImage.getWidth(), mapImage.getHeight());
+            toggleWatching();
+        }
+    }
+
+    // Load the map without changing anything on disk, e.g. for the command line renderers while the
+    // application may be running: the CSV is not watched, the journal is replayed but left as it is,
+    // no snapshot is written and editing people fails
+    static MapPlotter openReadOnly() {
+        return new MapPlotter(true);
     }
 
     // Initialize components
     private void initializeComponents() {
+        // Boundaries are parsed and triangulated while the map image loads
+        CompletableFuture<List<CityBoundary>> boundaries = BoundaryLoader.loadAsync(Paths.get(BOUNDARIES_PATH));
         loadMapImage();
-        initializeLists();
-        cityBoundaryManager = new CityBoundaryManager();
+        people = new PersonStore();
+        sceneChanges = new StoreChanges.Recorder(people);
+        cityBoundaryManager = createCityBoundaryManager(boundaries);
         createGridOverlay();
+        frameRenderer = new FrameRenderer(mapImage, cityBoundaryManager, getMapSize(),
+                getFontMetrics(FrameRenderer.NAME_FONT), frameStats, this::repaint);
 
         // Set initial visibility states
-        showPoints = showGrid = showCoordinates = true;
-        showNames = showBoundaries = false;
+        showPoints = showGrid = showCoordinates = showClusters = true;
+        showNames = showBoundaries = showHeatmap = false;
     }
 
     // Load map image
     private void loadMapImage() {
         try {
-            mapImage = ImageIO.read(new File("src/resources/caviteMapCity.png"));
+            mapImage = ImageIO.read(new File(MAP_IMAGE_PATH));
         } catch (IOException e) {
             System.out.println("Map image not found.");
         }
     }
 
-    // Initialize lists
-    private void initializeLists() {
-        coordinates = new ArrayList<>();
-        names = new ArrayList<>();
-        addresses = new ArrayList<>();
-        cities = new ArrayList<>();
+    // Use the loaded boundaries, or the built-in ones if there is no boundary file
+    private CityBoundaryManager createCityBoundaryManager(CompletableFuture<List<CityBoundary>> boundaries) {
+        try {
+            List<CityBoundary> loaded = boundaries.join();
+            if (loaded != null && !loaded.isEmpty()) {
+                return new CityBoundaryManager(loaded);
+            }
+        } catch (CompletionException e) {
+            System.out.println("Error loading city boundaries, using the built-in ones.");
+            e.getCause().printStackTrace();
+        }
+        return new CityBoundaryManager();
     }
 
     // Load data from CSV
     public void loadData() {
-        names.clear();
-        addresses.clear();
-        cities.clear();
-        coordinates.clear();
+        people.startBulkLoad();
+
+        if (!loadSnapshot()) {
+            readCoordinatesFromCSV();
+            replayJournal();
+            saveSnapshot();
+        }
+
+        people.endBulkLoad();
+        repaint();
+    }
+
+    // Restore people from the binary snapshot if it is current; returns false to fall back to the CSV
+    private boolean loadSnapshot() {
+        try {
+            long start = System.nanoTime();
+            String sourceKey = MapSnapshot.sourceKey(Paths.get(CSV_PATH), Paths.get(JOURNAL_PATH), cityBoundaryManager);
+            MapSnapshot snapshot = MapSnapshot.read(Paths.get(SNAPSHOT_PATH), sourceKey);
+            if (snapshot == null) return false;
+
+            snapshot.restoreInto(people, cityBoundaryManager);
+            journal.open();
+            // Claim the restored spots, so duplicates added later get their own and removals release them
+            unresolvedCount = 0;
+            placementCache.startGeneration();
+            for (int row = 0; row < people.size(); row++) {
+                if (!people.isPlaced(row)) {
+                    unresolvedCount++;
+                    continue;
+                }
+                String key = placementCache.claim(placementKey(people.getName(row), people.getCityId(row), people.getAddress(row)));
+                placementCache.put(key, people.getX(row), people.getY(row));
+            }
+            placementCache.endGeneration();
+            System.out.printf("Restored %d rows from snapshot in %.1f ms%n", snapshot.size(), (System.nanoTime() - start) / 1e6);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not read snapshot, loading CSV instead.");
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    // Write the roster to the binary snapshot in the background. Writes run one after another on a
+    // single thread, so two quick saves never interleave in the snapshot's temp file
+    private void saveSnapshot() {
+        if (readOnly) return;
+        try {
+            String sourceKey = MapSnapshot.sourceKey(Paths.get(CSV_PATH), Paths.get(JOURNAL_PATH), cityBoundaryManager);
+            MapSnapshot snapshot = MapSnapshot.capture(sourceKey, people, cityBoundaryManager);
+            snapshotVersion = people.getVersion();
+            snapshotWriter.execute(() -> {
+                try {
+                    snapshot.write(Paths.get(SNAPSHOT_PATH));
+                } catch (IOException e) {
+                    System.out.println("Error writing snapshot.");
+                    e.printStackTrace();
+                }
+            });
+        } catch (IOException e) {
+            System.out.println("Error writing snapshot.");
+            e.printStackTrace();
+        }
+    }
+
+    // Snapshot the roster if it changed since the last snapshot, so the next start can skip the CSV,
+    // and wait for the snapshot to be written. Called when the application closes
+    public void close() {
+        csvWatcher.stop();
+        stopQueryServer();
+        if (people.getVersion() != snapshotVersion) saveSnapshot();
+        snapshotWriter.shutdown();
+        try {
+            snapshotWriter.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Replay edits made since the CSV was last written
+    private void replayJournal() {
+        try {
+            EditJournal.Target target = new EditJournal.Target() {
+                @Override
+                public void replayAdd(int id, String name, String city, String address) {
+                    int added = applyAdd(name, city, address);
+                    if (added != id) System.out.println("Journal id " + id + " replayed as " + added);
+                }
+
+                @Override
+                public void replayUpdate(int id, String name, String city, String address) {
+                    applyUpdate(id, name, city, address);
+                }
+
+                @Override
+                public void replayRemove(int id) {
+                    applyRemove(id);
+                }
+
+                @Override
+                public void renumber() {
+                    people.renumberIds();
+                }
+            };
+            int replayed = readOnly ? journal.replayReadOnly(target) : journal.replay(target);
+            if (replayed > 0) System.out.println("Replayed " + replayed + " journal edits");
+        } catch (IOException e) {
+            System.out.println("Error replaying the edit journal.");
+            e.printStackTrace();
+        }
+    }
+
+    // Add a person and record it in the journal; returns the person's stable id
+    public int addPerson(String name, String city, String address) {
+        checkWritable();
+        int id = applyAdd(name, city, address);
+        journal.appendAdd(id, name, city, address);
+        commitJournal();
+        return id;
+    }
+
+    // Change a person and record it in the journal
+    public void updatePerson(int id, String name, String city, String address) {
+        checkWritable();
+        int row = people.rowOf(id);
+        if (row < 0) return;
+        String oldName = people.getName(row), oldCity = cityBoundaryManager.getCityName(people.getCityId(row));
+        String oldAddress = people.getAddress(row);
+        applyUpdate(id, name, city, address);
+        journal.appendUpdate(id, name, city, address, oldName, oldCity, oldAddress);
+        commitJournal();
+    }
+
+    // Remove a person and record it in the journal
+    public void removePerson(int id) {
+        checkWritable();
+        int row = people.rowOf(id);
+        if (row < 0) return;
+        String oldName = people.getName(row), oldCity = cityBoundaryManager.getCityName(people.getCityId(row));
+        String oldAddress = people.getAddress(row);
+        applyRemove(id);
+        journal.appendRemove(id, oldName, oldCity, oldAddress);
+        commitJournal();
+    }
+
+    // Edits are journaled, so a plotter loaded read-only must not take any
+    private void checkWritable() {
+        if (readOnly) throw new IllegalStateException("The map was loaded read-only");
+    }
+
+    // Force journaled edits to disk, compacting the journal into the CSV once it is large
+    private void commitJournal() {
+        try {
+            journal.commit();
+            if (journal.needsCompaction()) {
+                List<String[]> rows = new ArrayList<>(people.size());
+                for (int row = 0; row < people.size(); row++) {
+                    rows.add(new String[]{people.getName(row),
+                            cityBoundaryManager.getCityName(people.getCityId(row)), people.getAddress(row)});
+                }
+                // The snapshot key changes with the CSV, so take a new snapshot once the compacted CSV is in place
+                journal.compact(rows, () -> SwingUtilities.invokeLater(this::saveSnapshot));
+                people.renumberIds();
+            }
+        } catch (IOException e) {
+            System.out.println("Error writing the edit journal.");
+            e.printStackTrace();
+        }
+    }
+
+    // Diff a CSV changed outside the plotter against the roster and apply only the differences, keeping
+    // the edits journaled since the last CSV. Runs on the watcher thread; the roster is copied and
+    // changed on the EDT
+    private void reloadChangedCsv() {
+        try {
+            Path csvPath = Paths.get(CSV_PATH);
+            String fingerprint = EditJournal.fingerprint(csvPath);
+            if (journal.isKnownCsv(fingerprint)) return;  // Unchanged, or written by our own compaction
+
+            long start = System.nanoTime();
+            journal.awaitCompaction();  // Wait here rather than on the EDT
+            CsvLoader.Result result = csvLoader.load(csvPath);
+            List<String> cityNames = new ArrayList<>();
+            FutureTask<PersonStore.Columns> capture = new FutureTask<>(() -> {
+                for (int id = 0; id < cityBoundaryManager.getCityCount(); id++) {
+                    cityNames.add(cityBoundaryManager.getCityName(id));
+                }
+                return people.copyColumns();
+            });
+            SwingUtilities.invokeLater(capture);
+            PersonStore.Columns memory = capture.get();
+            // Read after the capture: edits made since then change the version, and the diff is redone
+            List<String[]> pendingEdits = journal.readPendingEdits();
+            RosterDiff diff = RosterDiff.compute(memory, cityNames, result.getRows(), pendingEdits);
+            SwingUtilities.invokeLater(() -> applyCsvDiff(diff, memory.version, fingerprint, start));
+        } catch (IOException | ExecutionException e) {
+            System.out.println("Error reloading CSV file.");
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Apply a CSV diff to the roster, restart the journal on the new CSV and journal again the edits
+    // made in the plotter that the new CSV does not have
+    private void applyCsvDiff(RosterDiff diff, int version, String fingerprint, long start) {
+        if (people.getVersion() != version || journal.isCompacting()) {
+            csvWatcher.fileChanged();  // Edited while diffing; diff again against the current roster
+            return;
+        }
+        List<String[]> rows = diff.getFileRows();
+        int[] ids = diff.getFileRowIds();
+        int changed = 0;
+        for (int i : diff.getUpdatedRows()) {
+            String[] data = rows.get(i);
+            int row = people.rowOf(ids[i]);
+            // Rows that only differ in how the city is spelled ("GMA") resolve to the same person
+            if (people.getName(row).equals(data[0]) && people.getAddress(row).equals(data[2])
+                    && people.getCityId(row) == cityBoundaryManager.findCity(data[1])) continue;
+            applyUpdate(ids[i], data[0], data[1], data[2]);
+            changed++;
+        }
+        applyRemoveAll(diff.getRemovedIds());
+        for (int i : diff.getAddedRows()) {
+            String[] data = rows.get(i);
+            ids[i] = applyAdd(data[0], data[1], data[2]);
+        }
+
+        // Number people by their position in the new CSV, which is what the restarted journal refers to;
+        // people added in the plotter that the file has no row for come after it, in roster order
+        int[] newIds = new int[people.size()];
+        boolean[] inFile = new boolean[people.size()];
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] < 0) continue;  // Removed in the plotter
+            int row = people.rowOf(ids[i]);
+            newIds[row] = i;
+            inFile[row] = true;
+        }
+        List<Integer> extraRows = new ArrayList<>();
+        int nextId = rows.size();
+        for (int row = 0; row < people.size(); row++) {
+            if (inFile[row]) continue;
+            newIds[row] = nextId++;
+            extraRows.add(row);
+        }
+        people.reassignIds(newIds, nextId);
+        try {
+            journal.rebase(fingerprint);
+            for (int i : diff.getEditedRows()) {
+                String[] data = rows.get(i);
+                int row = people.rowOf(i);
+                journal.appendUpdate(i, people.getName(row), cityBoundaryManager.getCityName(people.getCityId(row)),
+                        people.getAddress(row), data[0], data[1], data[2]);
+            }
+            for (int i : diff.getDroppedRows()) {
+                String[] data = rows.get(i);
+                journal.appendRemove(i, data[0], data[1], data[2]);
+            }
+            for (int row : extraRows) {
+                journal.appendAdd(people.getId(row), people.getName(row),
+                        cityBoundaryManager.getCityName(people.getCityId(row)), people.getAddress(row));
+            }
+            journal.commit();
+        } catch (IOException e) {
+            System.out.println("Error restarting the edit journal.");
+            e.printStackTrace();
+        }
+        saveSnapshot();
+        System.out.printf("Reloaded %s: %d changed, %d added, %d removed, %d edits kept in %.1f ms%n",
+                Paths.get(CSV_PATH).getFileName(), changed, diff.getAddedRows().length, diff.getRemovedIds().length,
+                diff.getEditedRows().length + diff.getDroppedRows().length + extraRows.size(),
+                (System.nanoTime() - start) / 1e6);
+    }
+
+    // Add a person in memory; returns the person's stable id
+    private int applyAdd(String name, String city, String address) {
+        int cityId = cityBoundaryManager.internCity(city);
+        long packed = placePerson(name, cityId, address);
+        int row = people.add(name, cityId, address, (int) (packed >> 32), (int) packed);
+        if (!people.isPlaced(row)) unresolvedCount++;
+        repaint();
+        return people.getId(row);
+    }
+
+    // Change a person in place; the point only moves if name, city or address changed
+    private void applyUpdate(int id, String name, String city, String address) {
+        int row = people.rowOf(id);
+        if (row < 0) return;
+
+        int cityId = cityBoundaryManager.internCity(city);
+        int oldX = people.getX(row), oldY = people.getY(row);
+        int x = oldX, y = oldY;
+        String oldKey = placementKey(people.getName(row), people.getCityId(row), people.getAddress(row));
+        if (!oldKey.equals(placementKey(name, cityId, address))) {
+            releasePlacement(row);
+            long packed = placePerson(name, cityId, address);
+            x = (int) (packed >> 32);
+            y = (int) packed;
+        }
 
-        readCoordinatesFromCSV();
+        if (!people.isPlaced(row)) unresolvedCount--;
+        people.update(row, name, cityId, address, x, y);
+        if (!people.isPlaced(row)) unresolvedCount++;
+        if (highlightedPoint != null && highlightedPoint.x == oldX && highlightedPoint.y == oldY) {
+            highlightedPoint = people.isPlaced(row) ? new Point(x, y) : null;
+        }
+        repaint();
+    }
 
+    // Remove a person in memory
+    private void applyRemove(int id) {
+        int row = people.rowOf(id);
+        if (row < 0) return;
+
+        forgetRow(row);
+        people.remove(row);
         repaint();
     }
 
+    // Remove many people in memory; large batches are removed from the store in one pass
+    private void applyRemoveAll(int[] ids) {
+        if (ids.length <= BULK_REMOVE_THRESHOLD) {
+            for (int id : ids) {
+                applyRemove(id);
+            }
+            return;
+        }
+        int[] rows = new int[ids.length];
+        int count = 0;
+        for (int id : ids) {
+            int row = people.rowOf(id);
+            if (row < 0) continue;
+            forgetRow(row);
+            rows[count++] = row;
+        }
+        people.removeAll(Arrays.copyOf(rows, count));
+        repaint();
+    }
+
+    // Release what a row about to be removed holds: its placement, the highlight or its unresolved count
+    private void forgetRow(int row) {
+        if (people.isPlaced(row)) {
+            releasePlacement(row);
+            if (highlightedPoint != null && highlightedPoint.x == people.getX(row) && highlightedPoint.y == people.getY(row)) {
+                highlightedPoint = null;
+            }
+        } else {
+            unresolvedCount--;
+        }
+    }
+
+    // Get the stable id of the person in a row
+    public int getPersonId(int row) {
+        return people.getId(row);
+    }
+
+    // Get the id generation, which changes when a reload or compaction gives people new ids
+    public int getIdGeneration() {
+        return people.getIdGeneration();
+    }
+
+    // Check whether an id taken in the given generation still refers to someone
+    public boolean isCurrentPerson(int id, int idGeneration) {
+        return people.getIdGeneration() == idGeneration && people.rowOf(id) >= 0;
+    }
+
+    // Place a single person, reusing the cached placement if there is one
+    private long placePerson(String name, int cityId, String address) {
+        CityBoundary boundary = cityBoundaryManager.getCityBoundary(cityId);
+        if (boundary == null) {
+            return (long) PersonStore.UNPLACED << 32;
+        }
+        String key = placementCache.claim(placementKey(name, cityId, address));
+        long packed = placementCache.get(key);
+        if (packed == PlacementCache.MISSING) {
+            int[] x = new int[1], y = new int[1];
+            long[] seed = {PlacementCache.seedOf(key)};
+            boundary.sample(seed, 1, x, y);
+            redrawStrayPlacements(cityId, seed, 1, x, y);
+            placementCache.put(key, x[0], y[0]);
+            packed = ((long) x[0] << 32) | (y[0] & 0xFFFFFFFFL);
+        }
+        return packed;
+    }
+
+    // Check sampled points against the city lookup and redraw, with further seeds, those that landed outside
+    // their city, e.g. rounded onto a pixel just past the outline or into an overlapping neighbour.
+    // Returns how many points were redrawn
+    private int redrawStrayPlacements(int cityId, long[] seeds, int n, int[] xs, int[] ys) {
+        CityBoundary boundary = cityBoundaryManager.getCityBoundary(cityId);
+        int[] x = new int[1], y = new int[1];
+        int redrawn = 0;
+        for (int i = 0; i < n; i++) {
+            if (cityBoundaryManager.findCityAt(xs[i], ys[i]) == cityId) continue;
+            redrawn++;
+            for (int attempt = 1; attempt <= MAX_PLACEMENT_ATTEMPTS && cityBoundaryManager.findCityAt(xs[i], ys[i]) != cityId; attempt++) {
+                boundary.sample(new long[]{seeds[i] + attempt * 0x632BE59BD9B4E019L}, 1, x, y);
+                xs[i] = x[0];
+                ys[i] = y[0];
+            }
+        }
+        return redrawn;
+    }
+
+    // Show the city under the cursor as a tooltip
+    @Override
+    public String getToolTipText(MouseEvent e) {
+        double scale = interactionHandler.getScale();
+        int x = (int) Math.floor((e.getX() - interactionHandler.getOffsetX()) / scale);
+        int y = (int) Math.floor((e.getY() - interactionHandler.getOffsetY()) / scale);
+        int cityId = cityBoundaryManager.findCityAt(x, y);
+        return cityId < 0 ? null : cityBoundaryManager.getCityName(cityId);
+    }
+
+    // Release the cached placement of the person in a row
+    private void releasePlacement(int row) {
+        if (!people.isPlaced(row)) return;
+        placementCache.release(placementKey(people.getName(row), people.getCityId(row), people.getAddress(row)),
+                people.getX(row), people.getY(row));
+    }
+
+    // Build the placement key of a person
+    private String placementKey(String name, int cityId, String address) {
+        return PlacementCache.keyOf(name, cityBoundaryManager.getCityName(cityId), address);
+    }
+
+    // Convert a model-space rectangle to the device-space area it covers, with a pixel to spare for anti-aliasing
+    private Rectangle toDeviceRect(Rectangle bounds) {
+        double scale = interactionHandler.getScale();
+        int x = (int) Math.floor(interactionHandler.getOffsetX() + bounds.x * scale);
+        int y = (int) Math.floor(interactionHandler.getOffsetY() + bounds.y * scale);
+        return new Rectangle(x - 1, y - 1, (int) Math.ceil(bounds.width * scale) + 3, (int) Math.ceil(bounds.height * scale) + 3);
+    }
+
+    // Repaint the coordinate readout where it was last painted and where it goes for the current mouse position
+    private void repaintCoordinates() {
+        if (!showCoordinates) return;
+        if (paintedCoordinates != null) repaint(paintedCoordinates);
+        repaint(coordinatesBounds());
+    }
+
+    // Get the device-space area of the coordinate readout for the current mouse position
+    private Rectangle coordinatesBounds() {
+        Point mouseCoords = interactionHandler.getMouseCoordinates();
+        FontMetrics metrics = getFontMetrics(COORDINATE_FONT);
+        String text = coordinatesText(mouseCoords);
+        Rectangle bounds = new Rectangle(mouseCoords.x + 10, mouseCoords.y - 10 - metrics.getAscent(),
+                metrics.stringWidth(text), metrics.getHeight());
+        // Scaled glyphs can overhang their advance slightly
+        Rectangle device = toDeviceRect(bounds);
+        int overhang = (int) Math.ceil(interactionHandler.getScale());
+        device.grow(overhang, overhang);
+        return device;
+    }
+
+    private static String coordinatesText(Point mouseCoords) {
+        return "X: " + mouseCoords.x + " Y: " + mouseCoords.y;
+    }
+
+    // Get the device-space area of the highlight marker, or null if nothing is highlighted
+    private Rectangle highlightBounds() {
+        if (highlightedPoint == null) return null;
+        return toDeviceRect(new Rectangle(highlightedPoint.x - 5, highlightedPoint.y - 5, 5, 5));
+    }
+
+    // Repaint the highlight marker where it is now
+    private void repaintHighlight() {
+        Rectangle bounds = highlightBounds();
+        if (bounds != null) repaint(bounds);
+    }
+
     // Setup interaction handler
     private void setupInteraction() {
-        interactionHandler = new MapInteractionHandler(this, 1.0, 0.5, 3.0);
+        interactionHandler = new MapInteractionHandler(this, 1.0, 0.5, MAX_ZOOM);
+        interactionHandler.setMouseMoveRepaint(this::repaintCoordinates);
+        cameraAnimator = new CameraAnimator(interactionHandler, this);
+        ToolTipManager.sharedInstance().registerComponent(this);
+        addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                zoomToClusterAt(e.getPoint());
+            }
+        });
     }
 
     // Create grid overlay
@@ -82,16 +633,34 @@ public class MapPlotter extends JPanel {
 
     // Read coordinates from CSV file
     private void readCoordinatesFromCSV() {
-        try (BufferedReader reader = new BufferedReader(new FileReader("src/resources/addresses.csv"))) {
-            reader.readLine(); // Skip header
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] data = line.split(",");
-                if (data.length != 3) continue;
-                names.add(data[0]);
-                cities.add(data[1]);
-                addresses.add(data[2]);
-                coordinates.add(getCoordinatesForCity(data[1]));
+        try {
+            CsvLoader.Result result = csvLoader.load(Paths.get(CSV_PATH));
+            List<String[]> rows = result.getRows();
+            List<String> cityColumn = new ArrayList<>(rows.size());
+            for (String[] data : rows) {
+                cityColumn.add(data[1]);
+            }
+            int[] cityIds = cityBoundaryManager.resolveCities(cityColumn);
+
+            int[] xs = new int[rows.size()], ys = new int[rows.size()];
+            placePeople(rows, cityIds, xs, ys);
+
+            people.ensureCapacity(rows.size());
+            Set<String> unresolvedCities = new TreeSet<>();
+            unresolvedCount = 0;
+            for (int i = 0; i < rows.size(); i++) {
+                String[] data = rows.get(i);
+                if (cityBoundaryManager.hasBoundary(cityIds[i])) {
+                    people.add(data[0], cityIds[i], data[2], xs[i], ys[i]);
+                } else {
+                    people.add(data[0], cityIds[i], data[2], PersonStore.UNPLACED, 0);
+                    unresolvedCities.add(cityBoundaryManager.getCityName(cityIds[i]));
+                    unresolvedCount++;
+                }
+            }
+            System.out.println(result);
+            if (unresolvedCount > 0) {
+                System.out.println(unresolvedCount + " rows not plotted, unknown cities: " + unresolvedCities);
             }
         } catch (IOException e) {
             System.out.println("Error reading CSV file.");
@@ -99,28 +668,197 @@ public class MapPlotter extends JPanel {
         }
     }
 
-    // Get coordinates for a city
-    private Point getCoordinatesForCity(String cityName) {
-        for (CityBoundary boundary : cityBoundaryManager.getCityBoundaries()) {
-            if (boundary.getCityName().equalsIgnoreCase(cityName)) {
-                return boundary.getNextPoint();
+    // Place people in their cities. Cached placements are reused; the rest are sampled per city in one
+    // bulk call, seeded by the person's key so the same person always lands on the same spot
+    private void placePeople(List<String[]> rows, int[] cityIds, int[] xs, int[] ys) {
+        int cityCount = cityBoundaryManager.getCityBoundaries().size();
+        int[] counts = new int[cityCount];
+        String[] keys = new String[rows.size()];
+
+        placementCache.startGeneration();
+        for (int i = 0; i < cityIds.length; i++) {
+            int cityId = cityIds[i];
+            if (!cityBoundaryManager.hasBoundary(cityId)) continue;
+            String[] data = rows.get(i);
+            keys[i] = placementCache.claim(PlacementCache.keyOf(data[0], cityBoundaryManager.getCityName(cityId), data[2]));
+            long packed = placementCache.get(keys[i]);
+            if (packed != PlacementCache.MISSING) {
+                xs[i] = (int) (packed >> 32);
+                ys[i] = (int) packed;
+                keys[i] = null;
+            } else {
+                counts[cityId]++;
             }
         }
-        return new Point(0, 0);
+
+        long[][] seeds = new long[cityCount][];
+        int[][] cityX = new int[cityCount][], cityY = new int[cityCount][];
+        for (int cityId = 0; cityId < cityCount; cityId++) {
+            seeds[cityId] = new long[counts[cityId]];
+            cityX[cityId] = new int[counts[cityId]];
+            cityY[cityId] = new int[counts[cityId]];
+        }
+        int[] used = new int[cityCount];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) seeds[cityIds[i]][used[cityIds[i]]++] = PlacementCache.seedOf(keys[i]);
+        }
+        int placed = 0, redrawn = 0;
+        for (int cityId = 0; cityId < cityCount; cityId++) {
+            if (counts[cityId] == 0) continue;
+            cityBoundaryManager.getCityBoundary(cityId).sample(seeds[cityId], counts[cityId], cityX[cityId], cityY[cityId]);
+            redrawn += redrawStrayPlacements(cityId, seeds[cityId], counts[cityId], cityX[cityId], cityY[cityId]);
+            placed += counts[cityId];
+        }
+
+        Arrays.fill(used, 0);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null) continue;
+            int cityId = cityIds[i];
+            xs[i] = cityX[cityId][used[cityId]];
+            ys[i] = cityY[cityId][used[cityId]++];
+            placementCache.put(keys[i], xs[i], ys[i]);
+        }
+        int dropped = placementCache.endGeneration();
+        System.out.println("Placed " + placed + " new people, reused " + (rows.size() - placed - unresolvedRows(cityIds))
+                + " cached placements, dropped " + dropped + ", redrew " + redrawn + " outside their city");
+    }
+
+    // Count rows whose city has no boundary
+    private int unresolvedRows(int[] cityIds) {
+        int count = 0;
+        for (int cityId : cityIds) {
+            if (!cityBoundaryManager.hasBoundary(cityId)) count++;
+        }
+        return count;
+    }
+
+    // Get the city boundaries of the map
+    public List<CityBoundary> getCityBoundaries() {
+        return cityBoundaryManager.getCityBoundaries();
     }
 
     // Create list panel
     public JPanel createListPanel() {
-        return new ListPanel(names, addresses, coordinates, cities, this, gridOverlay);
+        return new ListPanel(new PersonTableModel(people, cityBoundaryManager), this, gridOverlay);
     }
 
     // Paint component
     @Override
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
-        Graphics2D g2d = (Graphics2D) g;
+        long start = System.nanoTime();
+        Graphics2D g2d = (Graphics2D) g.create();
+        Scene scene = currentScene();
+        frameRenderer.request(scene);
+        frameRenderer.drawLatest(g2d, scene);
         applyTransformations(g2d);
         drawMapComponents(g2d);
+        g2d.dispose();
+        frameStats.recordPaint(System.nanoTime() - start);
+        if (showStats) drawStats((Graphics2D) g);
+    }
+
+    // Route every repaint through the frame scheduler, which merges them into one per display refresh
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) {
+        if (frameScheduler == null) {
+            super.repaint(tm, x, y, width, height);
+            return;
+        }
+        frameScheduler.request(new Rectangle(x, y, width, height));
+    }
+
+    // Repaint an area right away; called by the frame scheduler
+    private void repaintNow(Rectangle area) {
+        super.repaint(0, area.x, area.y, area.width, area.height);
+    }
+
+    // Draw frame rate, frame time percentiles, points drawn and time per layer in the top left corner
+    private void drawStats(Graphics2D g) {
+        String[] lines = frameStats.summary();
+        g.setFont(STATS_FONT);
+        FontMetrics metrics = g.getFontMetrics();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, metrics.stringWidth(line));
+        }
+        g.setColor(STATS_BACKGROUND);
+        g.fillRect(0, 0, width + 12, lines.length * metrics.getHeight() + 8);
+        g.setColor(Color.WHITE);
+        for (int i = 0; i < lines.length; i++) {
+            g.drawString(lines[i], 6, 4 + metrics.getAscent() + i * metrics.getHeight());
+        }
+    }
+
+    // Describe what the map shows now. The scene carries the store's changes rather than the store, so
+    // edits made on the EDT never race with the render thread
+    private Scene currentScene() {
+        int layers = Scene.MAP | (showNames ? Scene.NAMES : 0) | (showPoints ? Scene.POINTS : 0) | (showGrid ? Scene.GRID : 0)
+                | (showBoundaries ? Scene.BOUNDARIES : 0) | (showClusters ? Scene.CLUSTERS : 0) | (showHeatmap ? Scene.HEATMAP : 0);
+        return new Scene(getWidth(), getHeight(), interactionHandler.getOffsetX(), interactionHandler.getOffsetY(),
+                interactionHandler.getScale(), layers, gridOverlay.getGridSize(), gridOverlay.getWidth(), gridOverlay.getHeight(),
+                sceneChanges.current());
+    }
+
+    // Get the columns of the current store version, copying them if the store changed
+    PersonStore.Columns currentData() {
+        if (copiedData == null || copiedData.version != people.getVersion()) {
+            copiedData = people.copyColumns();
+        }
+        return copiedData;
+    }
+
+    // Describe a view that fits an area of the map into a frame, e.g. for the batch renderer
+    Scene sceneFitting(Rectangle area, int width, int height, int layers) {
+        double scale = fitScale(area, width, height);
+        int offsetX = (int) Math.round(width / 2.0 - area.getCenterX() * scale);
+        int offsetY = (int) Math.round(height / 2.0 - area.getCenterY() * scale);
+        return new Scene(width, height, offsetX, offsetY, scale, layers, gridOverlay.getGridSize(), gridOverlay.getWidth(),
+                gridOverlay.getHeight(), sceneChanges.current());
+    }
+
+    // Describe a view of the current data, e.g. for the tile exporter
+    Scene sceneAt(int width, int height, int offsetX, int offsetY, double scale, int layers) {
+        return new Scene(width, height, offsetX, offsetY, scale, layers, gridOverlay.getGridSize(), gridOverlay.getWidth(),
+                gridOverlay.getHeight(), sceneChanges.current());
+    }
+
+    // Serve queries over the people on a port until stopped, answering from snapshots taken on the EDT.
+    // Only local clients can connect unless bindAll is set
+    public int startQueryServer(int port, boolean bindAll) throws IOException {
+        stopQueryServer();
+        queryServer = new QueryServer(port, bindAll, people, sceneChanges, cityBoundaryManager);
+        queryServer.start();
+        return queryServer.getPort();
+    }
+
+    // Stop the query server if it runs
+    public void stopQueryServer() {
+        if (queryServer != null) {
+            queryServer.stop();
+            queryServer = null;
+        }
+    }
+
+    // Get the size of the map in pixels
+    public Dimension getMapSize() {
+        return new Dimension(mapImage.getWidth(), mapImage.getHeight());
+    }
+
+    // Key of what the base map and boundaries are drawn from; changes when the map image or boundaries do
+    String baseLayersKey() throws IOException {
+        return "map=" + EditJournal.fingerprint(Paths.get(MAP_IMAGE_PATH))
+                + ";boundaries=" + Long.toHexString(cityBoundaryManager.getFingerprint());
+    }
+
+    // Create a tile pyramid of the base map that renderers on several threads can share
+    TiledImage createMapTiles() {
+        return mapImage != null ? new TiledImage(mapImage, FrameRenderer.TILE_CACHE_BYTES) : null;
+    }
+
+    // Create a renderer of this map that is driven from a single caller thread instead of its own
+    FrameRenderer createRenderer(TiledImage mapTiles, FrameStats stats) {
+        return new FrameRenderer(mapTiles, cityBoundaryManager, getMapSize(), getFontMetrics(FrameRenderer.NAME_FONT), stats, () -> {});
     }
 
     // Apply transformations to graphics
@@ -129,41 +867,50 @@ public class MapPlotter extends JPanel {
         g2d.scale(interactionHandler.getScale(), interactionHandler.getScale());
     }
 
-    // Draw map components
+    // Draw the components that change from frame to frame on top of the cached layers
     private void drawMapComponents(Graphics2D g2d) {
-        if (mapImage != null) g2d.drawImage(mapImage, 0, 0, null);
-        if (showGrid) gridOverlay.paintComponent(g2d);
-        if (showBoundaries) cityBoundaryManager.drawBoundaries(g2d);
-        if (showPoints) drawPlotPoints(g2d);
-        if (showNames) drawNames(g2d);
         if (showCoordinates) drawCoordinates(g2d);
         if (highlightedPoint != null) drawHighlightedPoint(g2d);
     }
 
-    // Draw plot points
-    private void drawPlotPoints(Graphics g) {
-        g.setColor(Color.RED);
-        for (Point point : coordinates) {
-            g.fillOval(point.x - 5, point.y - 5, 5, 5);
+    // Zoom to the extent of the cluster under a point on screen, if there is one
+    private void zoomToClusterAt(Point screenPoint) {
+        PointClusters.Level level = frameRenderer.getDisplayedClusters();
+        if (level == null) return;
+        double scale = interactionHandler.getScale();
+        int best = -1;
+        double bestDistance = Double.MAX_VALUE;
+        for (int c = 0; c < level.size(); c++) {
+            if (level.getCount(c) < 2) continue;
+            double dx = interactionHandler.getOffsetX() + level.getCenterX(c) * scale - screenPoint.x;
+            double dy = interactionHandler.getOffsetY() + level.getCenterY(c) * scale - screenPoint.y;
+            double distance = Math.hypot(dx, dy);
+            if (distance <= FrameRenderer.clusterRadius(level.getCount(c)) && distance < bestDistance) {
+                best = c;
+                bestDistance = distance;
+            }
         }
+        if (best >= 0) zoomToArea(level.getExtent(best));
     }
 
-    // Draw names
-    private void drawNames(Graphics g) {
-        g.setColor(Color.RED);
-        g.setFont(new Font("Arial", Font.PLAIN, 14));
-        for (int i = 0; i < coordinates.size(); i++) {
-            Point point = coordinates.get(i);
-            g.drawString(names.get(i), point.x + 10, point.y);
-        }
+    // Zoom so that an area of the map fills the view
+    public void zoomToArea(Rectangle area) {
+        cameraAnimator.animateTo(fitScale(area, getWidth(), getHeight()), area.getCenterX(), area.getCenterY());
+    }
+
+    // Get the zoom at which an area of the map, with some padding, fills a frame
+    private double fitScale(Rectangle area, int width, int height) {
+        double scale = Math.min(width / (area.width + 2.0 * ZOOM_PADDING), height / (area.height + 2.0 * ZOOM_PADDING));
+        return Math.max(interactionHandler.getMinScale(), Math.min(interactionHandler.getMaxScale(), scale));
     }
 
     // Draw coordinates
     private void drawCoordinates(Graphics g) {
         Point mouseCoords = interactionHandler.getMouseCoordinates();
         g.setColor(Color.BLACK);
-        g.setFont(new Font("Arial", Font.BOLD, 14));
-        g.drawString("X: " + mouseCoords.x + " Y: " + mouseCoords.y, mouseCoords.x + 10, mouseCoords.y - 10);
+        g.setFont(COORDINATE_FONT);
+        g.drawString(coordinatesText(mouseCoords), mouseCoords.x + 10, mouseCoords.y - 10);
+        paintedCoordinates = coordinatesBounds();
     }
 
     // Draw highlighted point
@@ -172,59 +919,33 @@ public class MapPlotter extends JPanel {
         g2d.fillOval(highlightedPoint.x - 5, highlightedPoint.y - 5, 5, 5);
     }
 
+    // Get the plotted point of a person, or null if the person's city is unknown
+    public Point getPersonPoint(int row) {
+        return people.isPlaced(row) ? new Point(people.getX(row), people.getY(row)) : null;
+    }
+
+    // Get the number of people whose city could not be resolved
+    public int getUnresolvedCount() {
+        return unresolvedCount;
+    }
+
     // Highlight selected point
     public void highlightSelectedPoint(Point point) {
+        repaintHighlight();
         this.highlightedPoint = point;
-        repaint();
+        repaintHighlight();
     }
 
     // Clear highlighted point
     public void clearHighlightedPoint() {
+        repaintHighlight();
         this.highlightedPoint = null;
-        repaint();
     }
 
     // Zoom to coordinate
     public void zoomToCoordinate(Point point) {
         final double minZoomScale = 2.0;
-        final double startScale = interactionHandler.getScale();
-        final double targetScale = Math.min(interactionHandler.getMaxScale(), minZoomScale);
-
-        final int startX = interactionHandler.getOffsetX();
-        final int startY = interactionHandler.getOffsetY();
-        final int targetX = (int) (-point.x * targetScale + getWidth() / 2);
-        final int targetY = (int) (-point.y * targetScale + getHeight() / 2);
-
-        animateZoom(startScale, targetScale, startX, startY, targetX, targetY);
-    }
-
-    // Animate zoom
-    private void animateZoom(double startScale, double targetScale, int startX, int startY, int targetX, int targetY) {
-        final int animationSteps = 30;
-        final double scaleStep = (targetScale - startScale) / animationSteps;
-        final int xStep = (targetX - startX) / animationSteps;
-        final int yStep = (targetY - startY) / animationSteps;
-
-        Timer zoomTimer = new Timer(20, new ActionListener() {
-            private int step = 0;
-
-            @Override
-            public void actionPerformed(ActionEvent e) {
-                if (step >= animationSteps) {
-                    ((Timer) e.getSource()).stop();
-                    return;
-                }
-
-                interactionHandler.setScale(startScale + step * scaleStep);
-                interactionHandler.setOffsetX(startX + step * xStep);
-                interactionHandler.setOffsetY(startY + step * yStep);
-
-                revalidate();
-                repaint();
-                step++;
-            }
-        });
-        zoomTimer.start();
+        cameraAnimator.animateTo(Math.min(interactionHandler.getMaxScale(), minZoomScale), point.x, point.y);
     }
 
     // Toggle visibility methods
@@ -233,6 +954,25 @@ public class MapPlotter extends JPanel {
     public void toggleGrid() { showGrid = !showGrid; repaint(); }
     public void toggleBoundaries() { showBoundaries = !showBoundaries; repaint(); }
     public void toggleCoordinates() { showCoordinates = !showCoordinates; repaint(); }
+    public void toggleClusters() { showClusters = !showClusters; repaint(); }
+    public void toggleHeatmap() { showHeatmap = !showHeatmap; repaint(); }
+    public void toggleStats() { showStats = !showStats; repaint(); }
+
+    // Start or stop applying changes other programs make to the CSV
+    public void toggleWatching() {
+        if (readOnly) return;
+        if (csvWatcher.isWatching()) {
+            csvWatcher.stop();
+            return;
+        }
+        try {
+            csvWatcher.start();
+            csvWatcher.fileChanged();  // Pick up anything written while not watching
+        } catch (IOException e) {
+            System.out.println("Could not watch CSV file.");
+            e.printStackTrace();
+        }
+    }
 
     // Getter methods for visibility states
     public boolean isNamesVisible() { return showNames; }
@@ -240,4 +980,8 @@ public class MapPlotter extends JPanel {
     public boolean isGridVisible() { return showGrid; }
     public boolean isBoundariesVisible() { return showBoundaries; }
     public boolean isCoordinatesVisible() { return showCoordinates; }
+    public boolean isClustersVisible() { return showClusters; }
+    public boolean isHeatmapVisible() { return showHeatmap; }
+    public boolean isStatsVisible() { return showStats; }
+    public boolean isWatching() { return csvWatcher.isWatching(); }
 }
@@ -0,0 +1,232 @@
+package mapplotterproject;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * MapSnapshot class
+ * Binary snapshot (.mpsnap) of the loaded roster: the PersonStore columns with their placed
+ * coordinates and resolved city ids, the packed name/address text and the city name table.
+ * A snapshot is only used if its source key matches the current CSV, journal and boundaries,
+ * and its version and checksum are valid; otherwise the caller falls back to parsing the CSV.
+ *
+ * Layout (little-endian): magic, version, source key, then the payload length, its CRC32 and the
+ * payload itself: row count, next id, city count, text length, city names, the int columns
+ * and finally the text as UTF-16 chars.
+ */
+public class MapSnapshot {
+    private static final int MAGIC = 0x4D50534E;  // "MPSN"
+    // Bump whenever the layout or the way points are placed changes
+    private static final int VERSION = 4;
+
+    private final String sourceKey;
+    private final PersonStore.Columns columns;
+    private final List<String> cityNames;
+
+    private MapSnapshot(String sourceKey, PersonStore.Columns columns, List<String> cityNames) {
+        this.sourceKey = sourceKey;
+        this.columns = columns;
+        this.cityNames = cityNames;
+    }
+
+    /**
+     * Builds the key a snapshot must match to be used
+     * @param csvPath Roster CSV
+     * @param journalPath Edit journal
+     * @param cityBoundaryManager Current boundaries
+     * @return Source key
+     * @throws IOException If the files cannot be read
+     */
+    public static String sourceKey(Path csvPath, Path journalPath, CityBoundaryManager cityBoundaryManager) throws IOException {
+        return "csv=" + EditJournal.fingerprint(csvPath)
+                + ";journal=" + EditJournal.fingerprint(journalPath)
+                + ";boundaries=" + Long.toHexString(cityBoundaryManager.getFingerprint());
+    }
+
+    /**
+     * Captures the store and city table. Must be called on the thread that owns the store;
+     * the returned snapshot can then be written from any thread.
+     * @param sourceKey Key of the files the store was loaded from
+     * @param people Store to capture
+     * @param cityBoundaryManager City table to capture
+     * @return Snapshot ready to be written
+     */
+    public static MapSnapshot capture(String sourceKey, PersonStore people, CityBoundaryManager cityBoundaryManager) {
+        List<String> cityNames = new ArrayList<>();
+        for (int id = 0; id < cityBoundaryManager.getCityCount(); id++) {
+            cityNames.add(cityBoundaryManager.getCityName(id));
+        }
+        return new MapSnapshot(sourceKey, people.copyColumns(), cityNames);
+    }
+
+    /**
+     * Writes the snapshot to a temp file and atomically moves it into place
+     * @param path Snapshot file
+     * @throws IOException If the file cannot be written
+     */
+    public void write(Path path) throws IOException {
+        PersonStore.Columns c = columns;
+        List<byte[]> encodedCities = new ArrayList<>();
+        int citiesLength = 0;
+        for (String name : cityNames) {
+            byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+            encodedCities.add(encoded);
+            citiesLength += 4 + encoded.length;
+        }
+
+        long payloadLength = 16L + citiesLength + (long) c.size * 4 * 8 + (long) c.text.length * 2;
+        if (payloadLength > Integer.MAX_VALUE - 1024) {
+            throw new IOException("Roster too large for a snapshot");
+        }
+        ByteBuffer payload = ByteBuffer.allocate((int) payloadLength).order(ByteOrder.LITTLE_ENDIAN);
+        payload.putInt(c.size).putInt(c.nextId).putInt(cityNames.size()).putInt(c.text.length);
+        for (byte[] encoded : encodedCities) {
+            payload.putInt(encoded.length).put(encoded);
+        }
+        putInts(payload, c.ids, c.size);
+        putInts(payload, c.x, c.size);
+        putInts(payload, c.y, c.size);
+        putInts(payload, c.nameStart, c.size);
+        putInts(payload, c.nameLength, c.size);
+        putInts(payload, c.addressStart, c.size);
+        putInts(payload, c.addressLength, c.size);
+        putInts(payload, c.cityId, c.size);
+        payload.asCharBuffer().put(c.text);
+        payload.position(payload.limit());
+        payload.flip();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+
+        byte[] key = sourceKey.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(4 + 4 + 4 + key.length + 8 + 8).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(key.length).put(key).putLong(payloadLength).putLong(crc.getValue());
+        header.flip();
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) file.write(header);
+            while (payload.hasRemaining()) file.write(payload);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void putInts(ByteBuffer buffer, int[] values, int count) {
+        buffer.asIntBuffer().put(values, 0, count);
+        buffer.position(buffer.position() + count * 4);
+    }
+
+    /**
+     * Memory-maps a snapshot and reads it if it is current and intact
+     * @param path Snapshot file
+     * @param sourceKey Key the snapshot must have been written for
+     * @return The snapshot, or null if it is missing, stale, of another version or corrupt
+     * @throws IOException If the file exists but cannot be read
+     */
+    public static MapSnapshot read(Path path, String sourceKey) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = file.map(FileChannel.MapMode.READ_ONLY, 0, file.size());
+            ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            int keyLength = buffer.getInt();
+            if (keyLength < 0 || keyLength + 16 > buffer.remaining()) {
+                return null;
+            }
+            byte[] key = new byte[keyLength];
+            buffer.get(key);
+            if (!new String(key, StandardCharsets.UTF_8).equals(sourceKey)) {
+                return null;
+            }
+            long payloadLength = buffer.getLong();
+            long checksum = buffer.getLong();
+            if (payloadLength != buffer.remaining()) {
+                return null;
+            }
+            ByteBuffer payload = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+            CRC32 crc = new CRC32();
+            crc.update(payload.duplicate());
+            if (crc.getValue() != checksum) {
+                return null;
+            }
+            return decode(sourceKey, payload);
+        }
+    }
+
+    /**
+     * Decodes a verified payload
+     */
+    private static MapSnapshot decode(String sourceKey, ByteBuffer payload) {
+        PersonStore.Columns c = new PersonStore.Columns();
+        c.size = payload.getInt();
+        c.nextId = payload.getInt();
+        int cityCount = payload.getInt();
+        int textLength = payload.getInt();
+
+        List<String> cityNames = new ArrayList<>(cityCount);
+        for (int i = 0; i < cityCount; i++) {
+            byte[] encoded = new byte[payload.getInt()];
+            payload.get(encoded);
+            cityNames.add(new String(encoded, StandardCharsets.UTF_8));
+        }
+        c.ids = getInts(payload, c.size);
+        c.x = getInts(payload, c.size);
+        c.y = getInts(payload, c.size);
+        c.nameStart = getInts(payload, c.size);
+        c.nameLength = getInts(payload, c.size);
+        c.addressStart = getInts(payload, c.size);
+        c.addressLength = getInts(payload, c.size);
+        c.cityId = getInts(payload, c.size);
+        c.text = new char[textLength];
+        payload.asCharBuffer().get(c.text);
+        return new MapSnapshot(sourceKey, c, cityNames);
+    }
+
+    private static int[] getInts(ByteBuffer buffer, int count) {
+        int[] values = new int[count];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + count * 4);
+        return values;
+    }
+
+    /**
+     * Loads the snapshot into a store. City ids are remapped through the city table by name, so
+     * cities without a boundary get whatever id they have in this session.
+     * @param people Store to fill; no events are fired
+     * @param cityBoundaryManager City table to resolve city names against
+     */
+    public void restoreInto(PersonStore people, CityBoundaryManager cityBoundaryManager) {
+        int[] remap = new int[cityNames.size()];
+        for (int i = 0; i < remap.length; i++) {
+            remap[i] = cityBoundaryManager.internCity(cityNames.get(i));
+        }
+        for (int row = 0; row < columns.size; row++) {
+            columns.cityId[row] = remap[columns.cityId[row]];
+        }
+        people.restoreColumns(columns);
+    }
+
+    /**
+     * Getter for the number of people in the snapshot
+     * @return Row count
+     */
+    public int size() {
+        return columns.size;
+    }
+}
@@ -0,0 +1,514 @@
+package mapplotterproject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * PersonStore class
+ * Columnar store of plotted people. Coordinates are kept in primitive arrays, cities are
+ * dictionary-encoded as ids into the CityBoundaryManager city table, and names and addresses
+ * are packed into a single shared character buffer.
+ * Every person has a stable id that survives edits and removal of other rows; row indexes do not.
+ */
+public class PersonStore {
+    // X-coordinate of people whose city could not be resolved; they are listed but not plotted
+    public static final int UNPLACED = Integer.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    // Row columns
+    private int size;
+    private int[] x, y;
+    private int[] cityId;
+    private int[] nameStart, nameLength, addressStart, addressLength;
+    private int[] ids;
+
+    // Row of each id, or -1 once the person is removed
+    private int[] idToRow;
+    private int nextId;
+
+    // Packed text of all names and addresses; garbage counts characters no row refers to anymore
+    private char[] text;
+    private int textLength, garbage;
+
+    // Incremented by every change, so copies of the columns can tell whether they are still current
+    private int version;
+    // Incremented whenever ids are handed out anew, so an id held across a dialog can tell it went stale
+    private int idGeneration;
+
+    private final List<PersonStoreListener> listeners = new ArrayList<>();
+    private boolean bulkLoading;
+
+    /**
+     * Constructor for PersonStore
+     */
+    public PersonStore() {
+        x = new int[INITIAL_CAPACITY];
+        y = new int[INITIAL_CAPACITY];
+        cityId = new int[INITIAL_CAPACITY];
+        nameStart = new int[INITIAL_CAPACITY];
+        nameLength = new int[INITIAL_CAPACITY];
+        addressStart = new int[INITIAL_CAPACITY];
+        addressLength = new int[INITIAL_CAPACITY];
+        ids = new int[INITIAL_CAPACITY];
+        idToRow = new int[INITIAL_CAPACITY];
+        text = new char[INITIAL_CAPACITY * 16];
+    }
+
+    /**
+     * Registers a listener for change events
+     * @param listener Listener to add
+     */
+    public void addPersonStoreListener(PersonStoreListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Unregisters a listener
+     * @param listener Listener to remove; nothing happens if it is not registered
+     */
+    public void removePersonStoreListener(PersonStoreListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts a bulk load: clears the store, restarts ids at 0 and suppresses events until endBulkLoad
+     */
+    public void startBulkLoad() {
+        clear();
+        nextId = 0;
+        bulkLoading = true;
+    }
+
+    /**
+     * Ends a bulk load and notifies listeners that everything changed
+     */
+    public void endBulkLoad() {
+        bulkLoading = false;
+        for (PersonStoreListener listener : listeners) {
+            listener.peopleReloaded();
+        }
+    }
+
+    /**
+     * Appends a person to the store
+     * @param name Person's name
+     * @param cityId Id of the person's city in the CityBoundaryManager city table
+     * @param address Person's address
+     * @param px X-coordinate of the plotted point
+     * @param py Y-coordinate of the plotted point
+     * @return Row index of the new person
+     */
+    public int add(String name, int cityId, String address, int px, int py) {
+        ensureCapacity(size + 1);
+        version++;
+        int row = size++;
+        int id = nextId++;
+        if (id == idToRow.length) {
+            idToRow = Arrays.copyOf(idToRow, idToRow.length * 2);
+        }
+        ids[row] = id;
+        idToRow[id] = row;
+        x[row] = px;
+        y[row] = py;
+        this.cityId[row] = cityId;
+        nameStart[row] = appendText(name);
+        nameLength[row] = name.length();
+        addressStart[row] = appendText(address);
+        addressLength[row] = address.length();
+
+        if (!bulkLoading) {
+            for (PersonStoreListener listener : listeners) {
+                listener.personAdded(row);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Changes a person in place
+     * @param row Row index of the person
+     * @param name New name
+     * @param cityId New city id
+     * @param address New address
+     * @param px New x-coordinate
+     * @param py New y-coordinate
+     */
+    public void update(int row, String name, int cityId, String address, int px, int py) {
+        int oldX = x[row], oldY = y[row];
+        version++;
+        garbage += nameLength[row] + addressLength[row];
+        x[row] = px;
+        y[row] = py;
+        this.cityId[row] = cityId;
+        nameStart[row] = appendText(name);
+        nameLength[row] = name.length();
+        addressStart[row] = appendText(address);
+        addressLength[row] = address.length();
+        compactTextIfNeeded();
+
+        if (!bulkLoading) {
+            for (PersonStoreListener listener : listeners) {
+                listener.personUpdated(row, oldX, oldY);
+            }
+        }
+    }
+
+    /**
+     * Removes a person, moving the rows after it up by one. This keeps row order equal to file
+     * and table order at the cost of an array shift.
+     * @param row Row index of the person
+     */
+    public void remove(int row) {
+        int oldX = x[row], oldY = y[row];
+        version++;
+        garbage += nameLength[row] + addressLength[row];
+        idToRow[ids[row]] = -1;
+
+        int tail = size - row - 1;
+        System.arraycopy(x, row + 1, x, row, tail);
+        System.arraycopy(y, row + 1, y, row, tail);
+        System.arraycopy(cityId, row + 1, cityId, row, tail);
+        System.arraycopy(nameStart, row + 1, nameStart, row, tail);
+        System.arraycopy(nameLength, row + 1, nameLength, row, tail);
+        System.arraycopy(addressStart, row + 1, addressStart, row, tail);
+        System.arraycopy(addressLength, row + 1, addressLength, row, tail);
+        System.arraycopy(ids, row + 1, ids, row, tail);
+        size--;
+        for (int r = row; r < size; r++) {
+            idToRow[ids[r]] = r;
+        }
+        compactTextIfNeeded();
+
+        if (!bulkLoading) {
+            for (PersonStoreListener listener : listeners) {
+                listener.personRemoved(row, oldX, oldY);
+            }
+        }
+    }
+
+    /**
+     * Removes many people in one pass over the columns, keeping the order of the remaining rows.
+     * Listeners are told that everything changed instead of getting one event per removed row.
+     * @param rows Row indexes of the people, in any order
+     */
+    public void removeAll(int[] rows) {
+        if (rows.length == 0) {
+            return;
+        }
+        version++;
+        boolean[] removed = new boolean[size];
+        for (int row : rows) {
+            removed[row] = true;
+        }
+        int kept = 0;
+        for (int row = 0; row < size; row++) {
+            if (removed[row]) {
+                garbage += nameLength[row] + addressLength[row];
+                idToRow[ids[row]] = -1;
+                continue;
+            }
+            x[kept] = x[row];
+            y[kept] = y[row];
+            cityId[kept] = cityId[row];
+            nameStart[kept] = nameStart[row];
+            nameLength[kept] = nameLength[row];
+            addressStart[kept] = addressStart[row];
+            addressLength[kept] = addressLength[row];
+            ids[kept] = ids[row];
+            idToRow[ids[kept]] = kept;
+            kept++;
+        }
+        size = kept;
+        compactTextIfNeeded();
+
+        if (!bulkLoading) {
+            for (PersonStoreListener listener : listeners) {
+                listener.peopleReloaded();
+            }
+        }
+    }
+
+    /**
+     * Removes all people, keeping the allocated capacity
+     */
+    public void clear() {
+        version++;
+        idGeneration++;
+        for (int row = 0; row < size; row++) {
+            idToRow[ids[row]] = -1;
+        }
+        size = 0;
+        textLength = 0;
+        garbage = 0;
+    }
+
+    /**
+     * Renumbers ids to match row order (0..n-1), e.g. after the rows were written out as a new CSV
+     */
+    public void renumberIds() {
+        version++;
+        idGeneration++;
+        Arrays.fill(idToRow, 0, nextId, -1);
+        for (int row = 0; row < size; row++) {
+            ids[row] = row;
+            idToRow[row] = row;
+        }
+        nextId = size;
+    }
+
+    /**
+     * Gives every row a new id, e.g. its position in a CSV that was changed outside the plotter
+     * @param newIds New id of each row; ids must be distinct and below nextId
+     * @param nextId Id the next added person gets
+     */
+    public void reassignIds(int[] newIds, int nextId) {
+        version++;
+        idGeneration++;
+        Arrays.fill(idToRow, 0, this.nextId, -1);
+        if (nextId > idToRow.length) {
+            idToRow = Arrays.copyOf(idToRow, Math.max(nextId, idToRow.length * 2));
+        }
+        for (int row = 0; row < size; row++) {
+            ids[row] = newIds[row];
+            idToRow[newIds[row]] = row;
+        }
+        this.nextId = nextId;
+    }
+
+    /**
+     * Copies all columns, e.g. to hand them to a background writer
+     * @return Copy of the store's columns, with the text buffer compacted
+     */
+    Columns copyColumns() {
+        compactTextIfNeeded();
+        Columns columns = new Columns();
+        columns.version = version;
+        columns.size = size;
+        columns.nextId = nextId;
+        columns.ids = Arrays.copyOf(ids, size);
+        columns.x = Arrays.copyOf(x, size);
+        columns.y = Arrays.copyOf(y, size);
+        columns.cityId = Arrays.copyOf(cityId, size);
+        columns.nameStart = Arrays.copyOf(nameStart, size);
+        columns.nameLength = Arrays.copyOf(nameLength, size);
+        columns.addressStart = Arrays.copyOf(addressStart, size);
+        columns.addressLength = Arrays.copyOf(addressLength, size);
+        columns.text = Arrays.copyOf(text, textLength);
+        return columns;
+    }
+
+    /**
+     * Replaces the store's content with the given columns, without firing events
+     * @param columns Columns to take over; the arrays are used as they are
+     */
+    void restoreColumns(Columns columns) {
+        clear();
+        version++;
+        size = columns.size;
+        nextId = columns.nextId;
+        ids = columns.ids;
+        x = columns.x;
+        y = columns.y;
+        cityId = columns.cityId;
+        nameStart = columns.nameStart;
+        nameLength = columns.nameLength;
+        addressStart = columns.addressStart;
+        addressLength = columns.addressLength;
+        text = columns.text;
+        textLength = columns.text.length;
+        garbage = textLength;
+        for (int row = 0; row < size; row++) {
+            garbage -= nameLength[row] + addressLength[row];
+        }
+
+        idToRow = new int[Math.max(INITIAL_CAPACITY, nextId)];
+        Arrays.fill(idToRow, -1);
+        for (int row = 0; row < size; row++) {
+            idToRow[ids[row]] = row;
+        }
+        ensureCapacity(Math.max(INITIAL_CAPACITY, size));
+    }
+
+    /**
+     * Raw column arrays of a store, sized to its row count
+     */
+    static class Columns {
+        // Version of the store when the columns were copied
+        int version;
+        int size, nextId;
+        int[] ids, x, y, cityId, nameStart, nameLength, addressStart, addressLength;
+        char[] text;
+
+        /**
+         * Copies the columns, e.g. to restore them into a store that will change them
+         * @return Copy with arrays of its own
+         */
+        Columns copy() {
+            Columns columns = new Columns();
+            columns.version = version;
+            columns.size = size;
+            columns.nextId = nextId;
+            columns.ids = ids.clone();
+            columns.x = x.clone();
+            columns.y = y.clone();
+            columns.cityId = cityId.clone();
+            columns.nameStart = nameStart.clone();
+            columns.nameLength = nameLength.clone();
+            columns.addressStart = addressStart.clone();
+            columns.addressLength = addressLength.clone();
+            columns.text = text.clone();
+            return columns;
+        }
+    }
+
+    /**
+     * Rewrites the text buffer without unreferenced characters once more than half of it is garbage
+     */
+    private void compactTextIfNeeded() {
+        if (garbage <= textLength / 2) {
+            return;
+        }
+        char[] compacted = new char[Math.max(INITIAL_CAPACITY * 16, (textLength - garbage) * 2)];
+        int length = 0;
+        for (int row = 0; row < size; row++) {
+            System.arraycopy(text, nameStart[row], compacted, length, nameLength[row]);
+            nameStart[row] = length;
+            length += nameLength[row];
+            System.arraycopy(text, addressStart[row], compacted, length, addressLength[row]);
+            addressStart[row] = length;
+            length += addressLength[row];
+        }
+        text = compacted;
+        textLength = length;
+        garbage = 0;
+    }
+
+    /**
+     * Grows the row columns to hold at least the given number of rows
+     * @param capacity Required number of rows
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= x.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, x.length * 2);
+        x = Arrays.copyOf(x, newCapacity);
+        y = Arrays.copyOf(y, newCapacity);
+        cityId = Arrays.copyOf(cityId, newCapacity);
+        nameStart = Arrays.copyOf(nameStart, newCapacity);
+        nameLength = Arrays.copyOf(nameLength, newCapacity);
+        addressStart = Arrays.copyOf(addressStart, newCapacity);
+        addressLength = Arrays.copyOf(addressLength, newCapacity);
+        ids = Arrays.copyOf(ids, newCapacity);
+    }
+
+    /**
+     * Appends a string to the packed text buffer
+     * @param value String to append
+     * @return Offset of the string in the text buffer
+     */
+    private int appendText(String value) {
+        int start = textLength;
+        int required = start + value.length();
+        if (required > text.length) {
+            text = Arrays.copyOf(text, Math.max(required, text.length * 2));
+        }
+        value.getChars(0, value.length(), text, start);
+        textLength = required;
+        return start;
+    }
+
+    /**
+     * Getter for the number of people
+     * @return Number of rows in the store
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Getter for the store version, which changes whenever any row does
+     * @return Current version
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Getter for the id generation, which changes whenever the store is cleared or its ids are renumbered
+     * @return Current id generation
+     */
+    public int getIdGeneration() {
+        return idGeneration;
+    }
+
+    /**
+     * Gets the row of a person by id
+     * @param id Stable id of the person
+     * @return Row index, or -1 if the person was removed
+     */
+    public int rowOf(int id) {
+        return id >= 0 && id < nextId ? idToRow[id] : -1;
+    }
+
+    // Column getters
+
+    public int getId(int row) {
+        return ids[row];
+    }
+
+    public int getX(int row) {
+        return x[row];
+    }
+
+    public int getY(int row) {
+        return y[row];
+    }
+
+    public int getCityId(int row) {
+        return cityId[row];
+    }
+
+    /**
+     * Checks whether a person has a plotted point
+     * @param row Row index
+     * @return False if the person's city could not be resolved
+     */
+    public boolean isPlaced(int row) {
+        return x[row] != UNPLACED;
+    }
+
+    /**
+     * Gets a person's name as a new String
+     * @param row Row index
+     * @return Name of the person
+     */
+    public String getName(int row) {
+        return new String(text, nameStart[row], nameLength[row]);
+    }
+
+    /**
+     * Gets a person's address as a new String
+     * @param row Row index
+     * @return Address of the person
+     */
+    public String getAddress(int row) {
+        return new String(text, addressStart[row], addressLength[row]);
+    }
+
+    // Direct access to packed names, for drawing without allocating Strings
+
+    char[] getTextBuffer() {
+        return text;
+    }
+
+    int getNameStart(int row) {
+        return nameStart[row];
+    }
+
+    int getNameLength(int row) {
+        return nameLength[row];
+    }
+}
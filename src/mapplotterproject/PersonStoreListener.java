@@ -0,0 +1,34 @@
+package mapplotterproject;
+
+/**
+ * PersonStoreListener interface
+ * Receives fine-grained change notifications from a PersonStore.
+ */
+public interface PersonStoreListener {
+    /**
+     * Called after a person was appended
+     * @param row Row index of the new person
+     */
+    void personAdded(int row);
+
+    /**
+     * Called after a person was changed in place
+     * @param row Row index of the person
+     * @param oldX X-coordinate before the change
+     * @param oldY Y-coordinate before the change
+     */
+    void personUpdated(int row, int oldX, int oldY);
+
+    /**
+     * Called after a person was removed; rows after it have moved up by one
+     * @param row Row index the person had
+     * @param oldX X-coordinate of the removed person
+     * @param oldY Y-coordinate of the removed person
+     */
+    void personRemoved(int row, int oldX, int oldY);
+
+    /**
+     * Called after the whole store was reloaded
+     */
+    void peopleReloaded();
+}
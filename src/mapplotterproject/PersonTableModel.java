@@ -0,0 +1,75 @@
+package mapplotterproject;
+
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * PersonTableModel class
+ * Read-only table model that reads rows straight from a PersonStore instead of copying them.
+ * Store change events are forwarded as row-level table events.
+ */
+public class PersonTableModel extends AbstractTableModel implements PersonStoreListener {
+    private static final String[] COLUMN_NAMES = {"Name", "City", "Address"};
+
+    private final PersonStore people;
+    private final CityBoundaryManager cityBoundaryManager;
+
+    /**
+     * Constructor for PersonTableModel
+     * @param people Store holding the rows
+     * @param cityBoundaryManager City table used to decode city ids
+     */
+    public PersonTableModel(PersonStore people, CityBoundaryManager cityBoundaryManager) {
+        this.people = people;
+        this.cityBoundaryManager = cityBoundaryManager;
+        people.addPersonStoreListener(this);
+    }
+
+    @Override
+    public int getRowCount() {
+        return people.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public Class<?> getColumnClass(int column) {
+        return String.class;
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        switch (column) {
+            case 0: return people.getName(row);
+            case 1: return cityBoundaryManager.getCityName(people.getCityId(row));
+            default: return people.getAddress(row);
+        }
+    }
+
+    @Override
+    public void personAdded(int row) {
+        fireTableRowsInserted(row, row);
+    }
+
+    @Override
+    public void personUpdated(int row, int oldX, int oldY) {
+        fireTableRowsUpdated(row, row);
+    }
+
+    @Override
+    public void personRemoved(int row, int oldX, int oldY) {
+        fireTableRowsDeleted(row, row);
+    }
+
+    @Override
+    public void peopleReloaded() {
+        fireTableDataChanged();
+    }
+}
@@ -0,0 +1,125 @@
+package mapplotterproject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * PlacementCache class
+ * Remembers where each person was plotted so reloads only place new or changed rows.
+ * Entries are kept per generation: a reload starts a new generation, claims the keys of the rows
+ * it loads, and entries that were not claimed again are dropped when the generation ends.
+ */
+public class PlacementCache {
+    // Returned by get when a key has no cached placement
+    public static final long MISSING = Long.MIN_VALUE;
+
+    private Map<String, Long> placements = new HashMap<>();
+    private Map<String, Long> nextPlacements = new HashMap<>();
+    // Highest duplicate number claimed per key of nextPlacements; released keys leave gaps below it
+    private Map<String, Integer> duplicates = new HashMap<>();
+
+    /**
+     * Builds the key of a person. The city is part of the key, so moving a person to another city
+     * gives a new placement, while editing nothing leaves the person where they were.
+     * @param name Person's name
+     * @param city Canonical city name
+     * @param address Person's address
+     * @return Placement key
+     */
+    public static String keyOf(String name, String city, String address) {
+        return name.trim() + '\u001F' + city + '\u001F' + address.trim();
+    }
+
+    /**
+     * Computes the placement seed of a key (64-bit FNV-1a)
+     * @param key Placement key
+     * @return Seed for CityBoundary.sample
+     */
+    public static long seedOf(String key) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001B3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Starts a reload; keys claimed until endGeneration survive it
+     */
+    public void startGeneration() {
+        nextPlacements = new HashMap<>(Math.max(16, placements.size() * 4 / 3 + 1));
+        duplicates = new HashMap<>();
+    }
+
+    /**
+     * Claims a key for the current generation. Identical people get distinct keys ("key#2", ...)
+     * so they do not all land on the same spot.
+     * @param key Placement key
+     * @return Unique key for this row
+     */
+    public String claim(String key) {
+        String unique = key;
+        int n = 1;
+        while (nextPlacements.containsKey(unique)) {
+            unique = key + '#' + ++n;
+        }
+        duplicates.merge(key, n, Math::max);
+        Long cached = placements.get(unique);
+        nextPlacements.put(unique, cached != null ? cached : MISSING);
+        return unique;
+    }
+
+    /**
+     * Gets the placement of a claimed key
+     * @param key Key returned by claim
+     * @return Point packed as x in the high and y in the low 32 bits, or MISSING
+     */
+    public long get(String key) {
+        Long packed = nextPlacements.get(key);
+        return packed != null ? packed : MISSING;
+    }
+
+    /**
+     * Stores the placement of a claimed key
+     * @param key Key returned by claim
+     * @param x X-coordinate
+     * @param y Y-coordinate
+     */
+    public void put(String key, int x, int y) {
+        nextPlacements.put(key, ((long) x << 32) | (y & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Releases the placement of a removed or changed person. Of identical people, the one placed at the
+     * given point is released, so the others keep their spots.
+     * @param key Placement key built with keyOf
+     * @param x X-coordinate of the person
+     * @param y Y-coordinate of the person
+     */
+    public void release(String key, int x, int y) {
+        long packed = ((long) x << 32) | (y & 0xFFFFFFFFL);
+        int count = duplicates.getOrDefault(key, 1);
+        for (int n = 1; n <= count; n++) {
+            String unique = n == 1 ? key : key + '#' + n;
+            Long placed = nextPlacements.get(unique);
+            if (placed != null && placed == packed) {
+                nextPlacements.remove(unique);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Ends a reload, dropping placements of people that are gone
+     * @return Number of placements dropped
+     */
+    public int endGeneration() {
+        int dropped = 0;
+        for (String key : placements.keySet()) {
+            if (!nextPlacements.containsKey(key)) dropped++;
+        }
+        placements = nextPlacements;
+        return dropped;
+    }
+}
@@ -0,0 +1,159 @@
+package mapplotterproject;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * PointClusters class
+ * Hierarchy of grid clusters over the plotted points of a PersonStore, built once per store version.
+ * The finest level buckets points into square cells; every coarser level doubles the cell size and
+ * merges the four child cells, so the whole hierarchy costs one pass over the points plus one pass
+ * per level over the clusters below it. Each cluster keeps its point count, centroid and extent.
+ */
+public class PointClusters {
+    private final int version;
+    // Levels from coarsest (0) to finest; level i has cells of finestCell << (levelCount - 1 - i) pixels
+    private final Level[] levels;
+    private final int finestCell;
+
+    /**
+     * Clusters of one level, as parallel arrays
+     */
+    public static class Level {
+        private final int cellSize;
+        private int size;
+        private int[] count = new int[16];
+        private long[] sumX = new long[16], sumY = new long[16];
+        private int[] minX = new int[16], minY = new int[16], maxX = new int[16], maxY = new int[16];
+
+        Level(int cellSize) {
+            this.cellSize = cellSize;
+        }
+
+        private int newCluster() {
+            if (size == count.length) {
+                int capacity = size * 2;
+                count = Arrays.copyOf(count, capacity);
+                sumX = Arrays.copyOf(sumX, capacity);
+                sumY = Arrays.copyOf(sumY, capacity);
+                minX = Arrays.copyOf(minX, capacity);
+                minY = Arrays.copyOf(minY, capacity);
+                maxX = Arrays.copyOf(maxX, capacity);
+                maxY = Arrays.copyOf(maxY, capacity);
+            }
+            minX[size] = minY[size] = Integer.MAX_VALUE;
+            maxX[size] = maxY[size] = Integer.MIN_VALUE;
+            return size++;
+        }
+
+        private void add(int cluster, int pointCount, long x, long y, int x0, int y0, int x1, int y1) {
+            count[cluster] += pointCount;
+            sumX[cluster] += x;
+            sumY[cluster] += y;
+            minX[cluster] = Math.min(minX[cluster], x0);
+            minY[cluster] = Math.min(minY[cluster], y0);
+            maxX[cluster] = Math.max(maxX[cluster], x1);
+            maxY[cluster] = Math.max(maxY[cluster], y1);
+        }
+
+        // Cluster getters
+
+        public int size() {
+            return size;
+        }
+
+        public int getCellSize() {
+            return cellSize;
+        }
+
+        public int getCount(int cluster) {
+            return count[cluster];
+        }
+
+        public double getCenterX(int cluster) {
+            return (double) sumX[cluster] / count[cluster];
+        }
+
+        public double getCenterY(int cluster) {
+            return (double) sumY[cluster] / count[cluster];
+        }
+
+        /**
+         * Gets the bounding box of the points in a cluster
+         * @param cluster Cluster index
+         * @return Extent in map pixels
+         */
+        public Rectangle getExtent(int cluster) {
+            return new Rectangle(minX[cluster], minY[cluster], maxX[cluster] - minX[cluster], maxY[cluster] - minY[cluster]);
+        }
+    }
+
+    /**
+     * Builds the hierarchy for the current content of a store
+     * @param people Store to cluster
+     * @param finestCell Cell size of the finest level in map pixels
+     * @param levelCount Number of levels
+     */
+    public PointClusters(PersonStore people, int finestCell, int levelCount) {
+        this.version = people.getVersion();
+        this.finestCell = finestCell;
+        this.levels = new Level[levelCount];
+
+        Level finest = new Level(finestCell);
+        Map<Long, Integer> cells = new HashMap<>();
+        for (int row = 0; row < people.size(); row++) {
+            if (!people.isPlaced(row)) continue;
+            int x = people.getX(row), y = people.getY(row);
+            long key = cellKey(Math.floorDiv(x, finestCell), Math.floorDiv(y, finestCell));
+            int cluster = cells.computeIfAbsent(key, k -> finest.newCluster());
+            finest.add(cluster, 1, x, y, x, y, x, y);
+        }
+        levels[levelCount - 1] = finest;
+
+        // Merge each level's clusters into cells twice as large
+        for (int i = levelCount - 2; i >= 0; i--) {
+            Level child = levels[i + 1];
+            Level parent = new Level(child.cellSize * 2);
+            Map<Long, Integer> parentCells = new HashMap<>();
+            for (int c = 0; c < child.size; c++) {
+                int cx = Math.floorDiv(child.minX[c], parent.cellSize), cy = Math.floorDiv(child.minY[c], parent.cellSize);
+                int cluster = parentCells.computeIfAbsent(cellKey(cx, cy), k -> parent.newCluster());
+                parent.add(cluster, child.count[c], child.sumX[c], child.sumY[c],
+                        child.minX[c], child.minY[c], child.maxX[c], child.maxY[c]);
+            }
+            levels[i] = parent;
+        }
+    }
+
+    private static long cellKey(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Picks the level whose cells are closest to, but not smaller than, a size on screen
+     * @param scale Device pixels per map pixel
+     * @param cellPixels Desired cell size in device pixels
+     * @return The level, or null if even the finest cells are larger than needed and points should be drawn as they are
+     */
+    public Level levelFor(double scale, int cellPixels) {
+        if (finestCell * scale >= cellPixels * 2) {
+            return null;
+        }
+        for (int i = levels.length - 1; i >= 0; i--) {
+            if (levels[i].cellSize * scale >= cellPixels) {
+                return levels[i];
+            }
+        }
+        return levels[0];
+    }
+
+    /**
+     * Getter for the store version the hierarchy was built from
+     * @return Store version
+     */
+    public int getVersion() {
+        return version;
+    }
+}
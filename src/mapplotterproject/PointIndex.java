@@ -0,0 +1,138 @@
+package mapplotterproject;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * PointIndex class
+ * Uniform grid over the map that buckets the rows of a PersonStore by their plotted point, so paint
+ * code can visit only the people in the visible area. The index listens to the store and is updated
+ * incrementally; people whose city is unknown are not indexed.
+ *
+ * Cells hold row indexes. Removing a person shifts the rows after it up by one in the store, and the
+ * index does the same with one pass over its entries, which is no more work than the store's own shift.
+ */
+public class PointIndex implements PersonStoreListener {
+    private final PersonStore people;
+    private final int cellSize, columns, rows;
+
+    // Rows in each cell; cellCount[c] entries of cells[c] are used
+    private final int[][] cells;
+    private final int[] cellCount;
+
+    /**
+     * Constructor for PointIndex
+     * @param people Store to index; the index registers itself as a listener
+     * @param width Width of the map in pixels
+     * @param height Height of the map in pixels
+     * @param cellSize Side of a grid cell in pixels
+     */
+    public PointIndex(PersonStore people, int width, int height, int cellSize) {
+        this.people = people;
+        this.cellSize = cellSize;
+        this.columns = Math.max(1, (width + cellSize - 1) / cellSize);
+        this.rows = Math.max(1, (height + cellSize - 1) / cellSize);
+        this.cells = new int[columns * rows][];
+        this.cellCount = new int[columns * rows];
+        rebuild();
+        people.addPersonStoreListener(this);
+    }
+
+    /**
+     * Visits the rows whose point lies in the cells that overlap an area. Points outside the map are
+     * kept in the nearest edge cell, so they are visited whenever that cell is.
+     * @param area Area in map pixels
+     * @param consumer Receives the row indexes
+     */
+    public void query(Rectangle area, IntConsumer consumer) {
+        int firstColumn = columnOf(area.x), lastColumn = columnOf(area.x + area.width);
+        int firstRow = rowOf(area.y), lastRow = rowOf(area.y + area.height);
+        for (int r = firstRow; r <= lastRow; r++) {
+            for (int c = firstColumn; c <= lastColumn; c++) {
+                int cell = r * columns + c;
+                int[] entries = cells[cell];
+                for (int i = 0; i < cellCount[cell]; i++) {
+                    consumer.accept(entries[i]);
+                }
+            }
+        }
+    }
+
+    private int columnOf(int x) {
+        return Math.max(0, Math.min(columns - 1, Math.floorDiv(x, cellSize)));
+    }
+
+    private int rowOf(int y) {
+        return Math.max(0, Math.min(rows - 1, Math.floorDiv(y, cellSize)));
+    }
+
+    private int cellOf(int x, int y) {
+        return rowOf(y) * columns + columnOf(x);
+    }
+
+    /**
+     * Re-indexes every row of the store
+     */
+    private void rebuild() {
+        Arrays.fill(cellCount, 0);
+        for (int row = 0; row < people.size(); row++) {
+            if (people.isPlaced(row)) {
+                insert(cellOf(people.getX(row), people.getY(row)), row);
+            }
+        }
+    }
+
+    private void insert(int cell, int row) {
+        int[] entries = cells[cell];
+        if (entries == null) {
+            entries = cells[cell] = new int[8];
+        } else if (cellCount[cell] == entries.length) {
+            entries = cells[cell] = Arrays.copyOf(entries, entries.length * 2);
+        }
+        entries[cellCount[cell]++] = row;
+    }
+
+    private void delete(int cell, int row) {
+        int[] entries = cells[cell];
+        for (int i = 0; i < cellCount[cell]; i++) {
+            if (entries[i] == row) {
+                entries[i] = entries[--cellCount[cell]];
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void personAdded(int row) {
+        if (people.isPlaced(row)) {
+            insert(cellOf(people.getX(row), people.getY(row)), row);
+        }
+    }
+
+    @Override
+    public void personUpdated(int row, int oldX, int oldY) {
+        if (oldX != PersonStore.UNPLACED) {
+            delete(cellOf(oldX, oldY), row);
+        }
+        personAdded(row);
+    }
+
+    @Override
+    public void personRemoved(int row, int oldX, int oldY) {
+        if (oldX != PersonStore.UNPLACED) {
+            delete(cellOf(oldX, oldY), row);
+        }
+        for (int cell = 0; cell < cells.length; cell++) {
+            int[] entries = cells[cell];
+            for (int i = 0; i < cellCount[cell]; i++) {
+                if (entries[i] > row) entries[i]--;
+            }
+        }
+    }
+
+    @Override
+    public void peopleReloaded() {
+        rebuild();
+    }
+}
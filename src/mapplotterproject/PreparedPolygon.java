@@ -0,0 +1,135 @@
+package mapplotterproject;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+
+/**
+ * PreparedPolygon class
+ * Polygon prepared for many containment tests. The edges are sorted once into horizontal bands of
+ * the bounding box, so a test only walks the edges whose y-range reaches the band of the point
+ * instead of every edge of the polygon.
+ *
+ * Tests give exactly the same answers as Polygon.contains, including for points on edges and
+ * vertices: the crossing test is the same even-odd rule with the same half-open y-ranges, evaluated
+ * with the same floating-point operations in the same order.
+ */
+public class PreparedPolygon {
+    // Edges per band aimed for when choosing the number of bands
+    private static final int EDGES_PER_BAND = 4;
+
+    private final int minX, minY, maxX, maxY;
+    private final int bandHeight;
+    // Edges of band b are entries bandStart[b] to bandStart[b + 1] - 1; an edge is repeated in every band it reaches
+    private final int[] bandStart;
+    // Per entry: y-range [yLow, yHigh), the larger and smaller x of the edge, its lower end point and its deltas
+    private final int[] yLow, yHigh, xRight, xLeft, originX, originY, deltaX, deltaY;
+
+    /**
+     * Constructor for PreparedPolygon
+     * @param polygon Polygon to prepare; later changes to it are not seen
+     */
+    public PreparedPolygon(Polygon polygon) {
+        int n = polygon.npoints;
+        Rectangle bounds = n > 2 ? polygon.getBounds() : new Rectangle();
+        minX = bounds.x;
+        minY = bounds.y;
+        maxX = bounds.x + bounds.width;
+        maxY = bounds.y + bounds.height;
+        int bands = Math.max(1, Math.min(bounds.height, n / EDGES_PER_BAND));
+        bandHeight = Math.max(1, (bounds.height + bands - 1) / bands);
+        bandStart = new int[bands + 1];
+
+        // Count the entries per band, then fill them in band order
+        int[] counts = new int[bands + 1];
+        for (int i = 0; i < n && n > 2; i++) {
+            int y0 = polygon.ypoints[(i + n - 1) % n], y1 = polygon.ypoints[i];
+            if (y0 == y1) continue;  // Horizontal edges never cross
+            for (int b = bandOf(Math.min(y0, y1)); b <= bandOf(Math.max(y0, y1)); b++) {
+                counts[b + 1]++;
+            }
+        }
+        for (int b = 0; b < bands; b++) {
+            bandStart[b + 1] = bandStart[b] + counts[b + 1];
+        }
+        int entries = bandStart[bands];
+        yLow = new int[entries];
+        yHigh = new int[entries];
+        xRight = new int[entries];
+        xLeft = new int[entries];
+        originX = new int[entries];
+        originY = new int[entries];
+        deltaX = new int[entries];
+        deltaY = new int[entries];
+        int[] fill = bandStart.clone();
+        for (int i = 0; i < n && n > 2; i++) {
+            int lastX = polygon.xpoints[(i + n - 1) % n], lastY = polygon.ypoints[(i + n - 1) % n];
+            int curX = polygon.xpoints[i], curY = polygon.ypoints[i];
+            if (curY == lastY) continue;
+            boolean curIsLow = curY < lastY;
+            for (int b = bandOf(Math.min(curY, lastY)); b <= bandOf(Math.max(curY, lastY)); b++) {
+                int e = fill[b]++;
+                yLow[e] = Math.min(curY, lastY);
+                yHigh[e] = Math.max(curY, lastY);
+                xRight[e] = Math.max(curX, lastX);
+                xLeft[e] = Math.min(curX, lastX);
+                originX[e] = curIsLow ? curX : lastX;
+                originY[e] = curIsLow ? curY : lastY;
+                deltaX[e] = lastX - curX;
+                deltaY[e] = lastY - curY;
+            }
+        }
+    }
+
+    // Band of a y-coordinate within the bounding box, clamped to the existing bands
+    private int bandOf(double y) {
+        int band = (int) Math.floor((y - minY) / bandHeight);
+        return Math.max(0, Math.min(bandStart.length - 2, band));
+    }
+
+    /**
+     * Checks whether a point lies inside the polygon, exactly like Polygon.contains(int, int)
+     * @param x X-coordinate
+     * @param y Y-coordinate
+     * @return True if the point is inside
+     */
+    public boolean contains(int x, int y) {
+        return contains((double) x, (double) y);
+    }
+
+    /**
+     * Checks whether a point lies inside the polygon, exactly like Polygon.contains(double, double)
+     * @param x X-coordinate
+     * @param y Y-coordinate
+     * @return True if the point is inside
+     */
+    public boolean contains(double x, double y) {
+        if (!(x >= minX && y >= minY && x < maxX && y < maxY)) {
+            return false;
+        }
+        int band = bandOf(y);
+        boolean inside = false;
+        for (int e = bandStart[band]; e < bandStart[band + 1]; e++) {
+            if (y < yLow[e] || y >= yHigh[e] || x >= xRight[e]) {
+                continue;
+            }
+            if (x < xLeft[e]) {
+                inside = !inside;
+                continue;
+            }
+            double test1 = x - originX[e];
+            double test2 = y - originY[e];
+            if (test1 < (test2 / deltaY[e] * deltaX[e])) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Getter for the bounding box
+     * @return Bounding box as a new Rectangle
+     */
+    public Rectangle getBounds() {
+        return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+    }
+}
@@ -0,0 +1,446 @@
+package mapplotterproject;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.swing.SwingUtilities;
+import java.awt.Rectangle;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QueryServer class
+ * Embedded HTTP endpoint that lets other systems query the roster without the GUI.
+ * Requests are served on virtual threads where the JDK has them (21 and later), otherwise on pooled
+ * daemon threads, from an immutable snapshot of the store and the city table.
+ * After every burst of store changes the EDT hands the recorded changes and the city table to a capture
+ * thread, which brings a replica of the store up to date and copies it into a new snapshot. Requests
+ * never touch the live model and never wait for the EDT; they may see the model as it was a moment ago.
+ *
+ * Endpoints (GET; add format=csv or send Accept: text/csv for CSV instead of JSON):
+ *   /people[?city=NAME]                     People, optionally only those assigned to a city
+ *   /people/bbox?x=X&y=Y&width=W&height=H   People plotted in a rectangle of the map
+ *   /people/within?city=NAME                People plotted inside a city's boundary, whatever their assigned city
+ *   /cities                                 People per city
+ *   /cities/at?x=X&y=Y                      City whose boundary contains a point of the map
+ * Responses are streamed row by row and carry the store version they were answered from
+ * in the X-Snapshot-Version header. The server only listens on the loopback interface unless it is
+ * asked to listen on all of them.
+ */
+public class QueryServer implements PersonStoreListener {
+    private static final String[] PERSON_COLUMNS = {"id", "name", "city", "address", "x", "y"};
+    private static final String[] CITY_COLUMNS = {"id", "name", "hasBoundary", "count"};
+
+    // Running requests are given this long to finish when the server stops
+    private static final int STOP_SECONDS = 1;
+
+    private final PersonStore people;
+    private final StoreChanges.Recorder changes;
+    private final CityBoundaryManager cityBoundaryManager;
+    private final HttpServer server;
+    private final ExecutorService executor = newRequestExecutor();
+    private final ExecutorService captureThread = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "query-server-capture");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Null until the first snapshot is captured
+    private volatile Snapshot snapshot;
+    // Only touched on the EDT, where store events are fired
+    private boolean capturePending, stopped;
+    // Only touched on the capture thread
+    private final PersonStore replica = new PersonStore();
+    private StoreChanges applied;
+
+    /**
+     * Constructor for QueryServer; must be called on the EDT
+     * @param port Port to listen on, or 0 for any free port
+     * @param bindAll True to listen on all interfaces, false for the loopback interface only
+     * @param people Store whose changes trigger a new snapshot
+     * @param changes Recorder of the store's changes; only read on the EDT
+     * @param cityBoundaryManager City table the store's city ids refer to; only read on the EDT
+     * @throws IOException If the port cannot be bound
+     */
+    public QueryServer(int port, boolean bindAll, PersonStore people, StoreChanges.Recorder changes,
+                       CityBoundaryManager cityBoundaryManager) throws IOException {
+        this.people = people;
+        this.changes = changes;
+        this.cityBoundaryManager = cityBoundaryManager;
+        server = HttpServer.create(new InetSocketAddress(bindAll ? null : InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        people.addPersonStoreListener(this);
+        capture();
+    }
+
+    /**
+     * Starts accepting requests
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Serves requests on virtual threads if the JDK has them, looked up reflectively so the server
+     * also runs on JDK 17, and otherwise on a cached pool of daemon threads
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "query-server");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Stops taking snapshots and accepting requests; must be called on the EDT. Running requests are
+     * given a moment to finish on a background thread, so the EDT never waits for them.
+     */
+    public void stop() {
+        stopped = true;
+        people.removePersonStoreListener(this);
+        captureThread.shutdownNow();
+        Thread stopper = new Thread(() -> {
+            server.stop(STOP_SECONDS);
+            executor.shutdown();
+            try {
+                executor.awaitTermination(STOP_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "query-server-stop");
+        stopper.setDaemon(true);
+        stopper.start();
+    }
+
+    /**
+     * Getter for the port the server listens on
+     * @return Port number
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void personAdded(int row) {
+        scheduleCapture();
+    }
+
+    @Override
+    public void personUpdated(int row, int oldX, int oldY) {
+        scheduleCapture();
+    }
+
+    @Override
+    public void personRemoved(int row, int oldX, int oldY) {
+        scheduleCapture();
+    }
+
+    @Override
+    public void peopleReloaded() {
+        scheduleCapture();
+    }
+
+    // Capture a new snapshot once the EDT is done with the current burst of changes
+    private void scheduleCapture() {
+        if (capturePending || stopped) {
+            return;
+        }
+        capturePending = true;
+        SwingUtilities.invokeLater(() -> {
+            capturePending = false;
+            if (!stopped) {
+                capture();
+            }
+        });
+    }
+
+    // Take the changes and city table as they are now on the EDT and build the snapshot from them on the
+    // capture thread; captures run in order, so a newer snapshot is never replaced by an older one
+    private void capture() {
+        StoreChanges target = changes.current();
+        String[] cityNames = new String[cityBoundaryManager.getCityCount()];
+        CityBoundary[] boundaries = new CityBoundary[cityNames.length];
+        for (int id = 0; id < cityNames.length; id++) {
+            cityNames[id] = cityBoundaryManager.getCityName(id);
+            boundaries[id] = cityBoundaryManager.getCityBoundary(id);
+        }
+        captureThread.execute(() -> {
+            applied = StoreChanges.catchUp(replica, applied, target);
+            PersonStore.Columns columns = replica.copyColumns();
+            columns.version = target.version;  // The replica counts its own versions
+            snapshot = new Snapshot(columns, cityNames, boundaries, cityBoundaryManager);
+        });
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Only GET is supported");
+                return;
+            }
+            Snapshot data = snapshot;
+            if (data == null) {
+                sendError(exchange, 503, "Starting up, try again shortly");
+                return;
+            }
+            Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            try {
+                switch (exchange.getRequestURI().getPath()) {
+                    case "/people" -> {
+                        String city = params.get("city");
+                        int cityId = city == null ? -1 : data.requireCity(city);
+                        try (RowWriter out = open(exchange, params, data, PERSON_COLUMNS)) {
+                            for (int row = 0; row < data.columns.size; row++) {
+                                if (city == null || data.columns.cityId[row] == cityId) data.writePerson(out, row);
+                            }
+                        }
+                    }
+                    case "/people/bbox" -> {
+                        Rectangle area = new Rectangle(intParam(params, "x"), intParam(params, "y"),
+                                intParam(params, "width"), intParam(params, "height"));
+                        try (RowWriter out = open(exchange, params, data, PERSON_COLUMNS)) {
+                            for (int row = 0; row < data.columns.size; row++) {
+                                if (area.contains(data.columns.x[row], data.columns.y[row])) data.writePerson(out, row);
+                            }
+                        }
+                    }
+                    case "/people/within" -> {
+                        CityBoundary boundary = data.boundaries[data.requireCity(requireParam(params, "city"))];
+                        if (boundary == null) {
+                            throw new IllegalArgumentException("City has no boundary: " + params.get("city"));
+                        }
+                        Rectangle bounds = boundary.getBounds();
+                        try (RowWriter out = open(exchange, params, data, PERSON_COLUMNS)) {
+                            for (int row = 0; row < data.columns.size; row++) {
+                                int x = data.columns.x[row], y = data.columns.y[row];
+                                if (bounds.contains(x, y) && boundary.contains(x, y)) data.writePerson(out, row);
+                            }
+                        }
+                    }
+                    case "/cities" -> {
+                        int[] counts = new int[data.cityNames.length];
+                        for (int row = 0; row < data.columns.size; row++) {
+                            counts[data.columns.cityId[row]]++;
+                        }
+                        try (RowWriter out = open(exchange, params, data, CITY_COLUMNS)) {
+                            for (int id = 0; id < counts.length; id++) {
+                                out.row(id, data.cityNames[id], data.boundaries[id] != null, counts[id]);
+                            }
+                        }
+                    }
+                    case "/cities/at" -> {
+                        int cityId = data.cityBoundaryManager.findCityAt(intParam(params, "x"), intParam(params, "y"));
+                        try (RowWriter out = open(exchange, params, data, new String[]{"id", "name"})) {
+                            if (cityId >= 0) out.row(cityId, data.cityNames[cityId]);
+                        }
+                    }
+                    default -> sendError(exchange, 404, "Unknown endpoint " + exchange.getRequestURI().getPath());
+                }
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+            }
+        }
+    }
+
+    // Send the response headers and start streaming rows in the requested format
+    private static RowWriter open(HttpExchange exchange, Map<String, String> params, Snapshot data, String[] columns) throws IOException {
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        boolean csv = "csv".equalsIgnoreCase(params.get("format"))
+                || params.get("format") == null && accept != null && accept.contains("text/csv");
+        exchange.getResponseHeaders().set("Content-Type", (csv ? "text/csv" : "application/json") + "; charset=utf-8");
+        exchange.getResponseHeaders().set("X-Snapshot-Version", Integer.toString(data.columns.version));
+        // A length of 0 makes the response chunked, so rows go out as they are written
+        exchange.sendResponseHeaders(200, 0);
+        return csv ? new CsvRowWriter(exchange.getResponseBody(), columns) : new JsonRowWriter(exchange.getResponseBody(), columns);
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        if (query == null) {
+            return params;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            params.put(key, eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static String requireParam(Map<String, String> params, String name) {
+        String value = params.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return value;
+    }
+
+    private static int intParam(Map<String, String> params, String name) {
+        String value = requireParam(params, name);
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed parameter " + name + ": " + value);
+        }
+    }
+
+    /**
+     * Immutable view of the model that requests are answered from
+     */
+    public static class Snapshot {
+        private final PersonStore.Columns columns;
+        private final String[] cityNames;
+        // Boundary per city id, null for cities without one
+        private final CityBoundary[] boundaries;
+        // Only used for point lookups, which read the classifier that never changes after construction
+        private final CityBoundaryManager cityBoundaryManager;
+
+        private Snapshot(PersonStore.Columns columns, String[] cityNames, CityBoundary[] boundaries,
+                         CityBoundaryManager cityBoundaryManager) {
+            this.columns = columns;
+            this.cityNames = cityNames;
+            this.boundaries = boundaries;
+            this.cityBoundaryManager = cityBoundaryManager;
+        }
+
+        // Find a city by name, ignoring case
+        private int requireCity(String name) {
+            for (int id = 0; id < cityNames.length; id++) {
+                if (cityNames[id].equalsIgnoreCase(name.trim())) return id;
+            }
+            throw new IllegalArgumentException("Unknown city " + name);
+        }
+
+        private void writePerson(RowWriter out, int row) throws IOException {
+            boolean placed = columns.x[row] != PersonStore.UNPLACED;
+            out.row(columns.ids[row],
+                    new String(columns.text, columns.nameStart[row], columns.nameLength[row]),
+                    cityNames[columns.cityId[row]],
+                    new String(columns.text, columns.addressStart[row], columns.addressLength[row]),
+                    placed ? columns.x[row] : null,
+                    placed ? columns.y[row] : null);
+        }
+    }
+
+    /**
+     * Streams rows of values to a response body
+     */
+    private abstract static class RowWriter implements AutoCloseable {
+        protected final Writer out;
+        protected final String[] columns;
+
+        RowWriter(OutputStream body, String[] columns) {
+            this.out = new BufferedWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8));
+            this.columns = columns;
+        }
+
+        abstract void row(Object... values) throws IOException;
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes rows as an RFC 4180 CSV with a header line; null values are empty fields
+     */
+    private static class CsvRowWriter extends RowWriter {
+        CsvRowWriter(OutputStream body, String[] columns) throws IOException {
+            super(body, columns);
+            out.write(String.join(",", columns));
+            out.write("\r\n");
+        }
+
+        @Override
+        void row(Object... values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) out.write(',');
+                if (values[i] != null) out.write(CsvLoader.quote(values[i].toString()));
+            }
+            out.write("\r\n");
+        }
+    }
+
+    /**
+     * Writes rows as a JSON array of objects keyed by column name
+     */
+    private static class JsonRowWriter extends RowWriter {
+        private boolean first = true;
+
+        JsonRowWriter(OutputStream body, String[] columns) throws IOException {
+            super(body, columns);
+            out.write('[');
+        }
+
+        @Override
+        void row(Object... values) throws IOException {
+            out.write(first ? "\n{" : ",\n{");
+            first = false;
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) out.write(',');
+                writeString(columns[i]);
+                out.write(':');
+                Object value = values[i];
+                if (value instanceof String s) {
+                    writeString(s);
+                } else {
+                    out.write(String.valueOf(value));
+                }
+            }
+            out.write('}');
+        }
+
+        private void writeString(String s) throws IOException {
+            out.write('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"' -> out.write("\\\"");
+                    case '\\' -> out.write("\\\\");
+                    case '\n' -> out.write("\\n");
+                    case '\r' -> out.write("\\r");
+                    case '\t' -> out.write("\\t");
+                    default -> {
+                        if (c < 0x20) {
+                            out.write(String.format("\\u%04x", (int) c));
+                        } else {
+                            out.write(c);
+                        }
+                    }
+                }
+            }
+            out.write('"');
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.write(first ? "]\n" : "\n]\n");
+            super.close();
+        }
+    }
+}
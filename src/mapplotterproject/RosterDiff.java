@@ -0,0 +1,280 @@
+package mapplotterproject;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * RosterDiff class
+ * Difference between the roster in memory and a new version of the CSV. Rows are matched by a hash of
+ * name, normalized city and address, so identical rows match wherever they moved in the file.
+ * Leftover rows with the same name are paired up as changed rows; the rest are added or removed.
+ *
+ * Edits made in the plotter since the last CSV are carried over: where the file and the plotter both
+ * changed a person, the plotter's edit wins, and the file row a person had before it was edited or
+ * removed in the plotter does not come back as a new person.
+ */
+public class RosterDiff {
+    private final List<String[]> fileRows;
+    private final int[] fileRowIds;
+    private final int[] updatedRows, addedRows, removedIds;
+    private final int[] editedRows, droppedRows;
+
+    private RosterDiff(List<String[]> fileRows, int[] fileRowIds, int[] updatedRows, int[] addedRows, int[] removedIds,
+                       int[] editedRows, int[] droppedRows) {
+        this.fileRows = fileRows;
+        this.fileRowIds = fileRowIds;
+        this.updatedRows = updatedRows;
+        this.addedRows = addedRows;
+        this.removedIds = removedIds;
+        this.editedRows = editedRows;
+        this.droppedRows = droppedRows;
+    }
+
+    /**
+     * Diffs a copy of the store against the rows of the new CSV. Does not touch the store or the city
+     * table, so it can run off the thread that owns them.
+     * @param memory Columns copied from the store
+     * @param cityNames City table, indexed by city id
+     * @param fileRows Rows (Name, City, Address) of the new CSV in file order
+     * @param pendingEdits Edits journaled since the last CSV, as read by EditJournal.readPendingEdits
+     * @return The diff
+     */
+    public static RosterDiff compute(PersonStore.Columns memory, List<String> cityNames, List<String[]> fileRows,
+                                     List<String[]> pendingEdits) {
+        Map<String, String> normalizedCities = new HashMap<>();
+
+        // Index the memory rows by hash; rows with the same hash are chained through next
+        String[] memoryKeys = new String[memory.size];
+        int[] next = new int[memory.size];
+        Map<Long, Integer> heads = new HashMap<>(memory.size * 4 / 3 + 1);
+        for (int row = memory.size - 1; row >= 0; row--) {
+            String name = new String(memory.text, memory.nameStart[row], memory.nameLength[row]);
+            String address = new String(memory.text, memory.addressStart[row], memory.addressLength[row]);
+            String city = normalizedCities.computeIfAbsent(cityNames.get(memory.cityId[row]),
+                    CityBoundaryManager::normalizeCityName);
+            memoryKeys[row] = rowKey(name, city, address);
+            Integer head = heads.put(PlacementCache.seedOf(memoryKeys[row]), row);
+            next[row] = head != null ? head : -1;
+        }
+
+        // Match file rows to unused memory rows with the same hash and key
+        boolean[] used = new boolean[memory.size];
+        int[] fileRowIds = new int[fileRows.size()];
+        int unmatched = 0;
+        for (int i = 0; i < fileRows.size(); i++) {
+            String[] data = fileRows.get(i);
+            String key = rowKey(data[0], normalizedCities.computeIfAbsent(data[1], CityBoundaryManager::normalizeCityName), data[2]);
+            long hash = PlacementCache.seedOf(key);
+            Integer head = heads.get(hash);
+            int match = -1;
+            for (int row = head != null ? head : -1; row >= 0; row = next[row]) {
+                if (!used[row] && memoryKeys[row].equals(key)) {
+                    match = row;
+                    break;
+                }
+            }
+            if (match >= 0) {
+                used[match] = true;
+                fileRowIds[i] = memory.ids[match];
+                // Skip the used rows at the head of the chain so runs of duplicates stay cheap
+                if (match == head) {
+                    int newHead = next[match];
+                    while (newHead >= 0 && used[newHead]) newHead = next[newHead];
+                    if (newHead >= 0) heads.put(hash, newHead); else heads.remove(hash);
+                }
+            } else {
+                fileRowIds[i] = -1;
+                unmatched++;
+            }
+        }
+
+        // Pair the leftovers by name: same person with a new city or address
+        Map<String, ArrayDeque<Integer>> leftoverByName = new HashMap<>();
+        for (int row = 0; row < memory.size; row++) {
+            if (used[row]) continue;
+            String name = new String(memory.text, memory.nameStart[row], memory.nameLength[row]);
+            leftoverByName.computeIfAbsent(name, k -> new ArrayDeque<>()).add(row);
+        }
+        int[] updatedRows = new int[unmatched], addedRows = new int[unmatched];
+        int updated = 0, added = 0;
+        for (int i = 0; i < fileRows.size(); i++) {
+            if (fileRowIds[i] >= 0) continue;
+            ArrayDeque<Integer> sameName = leftoverByName.get(fileRows.get(i)[0]);
+            if (sameName != null && !sameName.isEmpty()) {
+                int row = sameName.poll();
+                used[row] = true;
+                fileRowIds[i] = memory.ids[row];
+                updatedRows[updated++] = i;
+            } else {
+                addedRows[added++] = i;
+            }
+        }
+
+        // People added or changed in the plotter keep their edit, and the rows people had in the old CSV
+        // before being changed or removed in the plotter are looked up by content
+        Set<Integer> edited = new HashSet<>();
+        Map<String, ArrayDeque<Integer>> baseIdsByKey = new HashMap<>();
+        collectEdits(pendingEdits, normalizedCities, edited, baseIdsByKey);
+        Map<Integer, Integer> editedRowOfId = new HashMap<>();
+        for (int row = 0; row < memory.size; row++) {
+            if (edited.contains(memory.ids[row])) editedRowOfId.put(memory.ids[row], row);
+        }
+
+        int[] editedRows = new int[fileRows.size()], droppedRows = new int[added];
+        int kept = 0, dropped = 0, stillUpdated = 0, stillAdded = 0;
+        for (int u = 0; u < updated; u++) {
+            int i = updatedRows[u];
+            if (editedRowOfId.containsKey(fileRowIds[i])) editedRows[kept++] = i; else updatedRows[stillUpdated++] = i;
+        }
+        for (int a = 0; a < added; a++) {
+            int i = addedRows[a];
+            String[] data = fileRows.get(i);
+            ArrayDeque<Integer> baseIds = baseIdsByKey.get(rowKey(data[0],
+                    normalizedCities.computeIfAbsent(data[1], CityBoundaryManager::normalizeCityName), data[2]));
+            Integer id = baseIds != null ? baseIds.poll() : null;
+            Integer row = id != null ? editedRowOfId.get(id) : null;
+            if (id == null) {
+                addedRows[stillAdded++] = i;
+            } else if (row != null && !used[row]) {
+                // The old row of a person changed in the plotter: same person, the plotter's edit wins
+                used[row] = true;
+                fileRowIds[i] = id;
+                editedRows[kept++] = i;
+            } else {
+                // The old row of a person removed in the plotter, or one already matched elsewhere
+                droppedRows[dropped++] = i;
+            }
+        }
+
+        // People edited in the plotter that the file has no row for stay as they are
+        int removed = 0;
+        int[] removedIds = new int[memory.size];
+        for (int row = 0; row < memory.size; row++) {
+            if (!used[row] && !edited.contains(memory.ids[row])) removedIds[removed++] = memory.ids[row];
+        }
+        return new RosterDiff(fileRows, fileRowIds, Arrays.copyOf(updatedRows, stillUpdated),
+                Arrays.copyOf(addedRows, stillAdded), Arrays.copyOf(removedIds, removed),
+                Arrays.copyOf(editedRows, kept), Arrays.copyOf(droppedRows, dropped));
+    }
+
+    /**
+     * Reads journaled edits: the ids of people added or changed since the last CSV, and for people of
+     * the last CSV that were changed or removed, the row they had in it
+     */
+    private static void collectEdits(List<String[]> pendingEdits, Map<String, String> normalizedCities,
+                                     Set<Integer> edited, Map<String, ArrayDeque<Integer>> baseIdsByKey) {
+        Set<Integer> touched = new HashSet<>();
+        for (String[] edit : pendingEdits) {
+            int id;
+            try {
+                id = Integer.parseInt(edit[1]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                continue;
+            }
+            // Only the first edit of a person tells what the person was in the last CSV
+            boolean first = touched.add(id);
+            int oldFields;
+            switch (edit[0]) {
+                case "A":
+                    edited.add(id);
+                    first = false;
+                    oldFields = -1;
+                    break;
+                case "U":
+                    edited.add(id);
+                    oldFields = 5;
+                    break;
+                case "R":
+                    edited.remove(id);
+                    oldFields = 2;
+                    break;
+                default:
+                    continue;
+            }
+            if (first && edit.length >= oldFields + 3) {
+                String key = rowKey(edit[oldFields], normalizedCities.computeIfAbsent(edit[oldFields + 1],
+                        CityBoundaryManager::normalizeCityName), edit[oldFields + 2]);
+                baseIdsByKey.computeIfAbsent(key, k -> new ArrayDeque<>()).add(id);
+            }
+        }
+    }
+
+    private static String rowKey(String name, String normalizedCity, String address) {
+        return name + '\u001F' + normalizedCity + '\u001F' + address;
+    }
+
+    /**
+     * Checks whether applying the diff would change nothing
+     * @return True if every row of the file matched a row in memory
+     */
+    public boolean isEmpty() {
+        return updatedRows.length == 0 && addedRows.length == 0 && removedIds.length == 0;
+    }
+
+    /**
+     * Getter for the rows of the new CSV
+     * @return Rows (Name, City, Address) in file order
+     */
+    public List<String[]> getFileRows() {
+        return fileRows;
+    }
+
+    /**
+     * Getter for the ids of the people each file row corresponds to. Added rows are -1 until the
+     * caller fills in the ids they were given.
+     * @return Id per file row
+     */
+    public int[] getFileRowIds() {
+        return fileRowIds;
+    }
+
+    /**
+     * Getter for the file rows that changed an existing person
+     * @return Indexes into the file rows
+     */
+    public int[] getUpdatedRows() {
+        return updatedRows;
+    }
+
+    /**
+     * Getter for the file rows that are new people
+     * @return Indexes into the file rows
+     */
+    public int[] getAddedRows() {
+        return addedRows;
+    }
+
+    /**
+     * Getter for the file rows of people edited in the plotter, whose edit is kept over the file row
+     * @return Indexes into the file rows
+     */
+    public int[] getEditedRows() {
+        return editedRows;
+    }
+
+    /**
+     * Getter for the file rows of people removed in the plotter, which are not added back
+     * @return Indexes into the file rows
+     */
+    public int[] getDroppedRows() {
+        return droppedRows;
+    }
+
+    /**
+     * Getter for the people that are no longer in the file
+     * @return Stable ids of the removed people
+     */
+    public int[] getRemovedIds() {
+        return removedIds;
+    }
+
+    @Override
+    public String toString() {
+        return updatedRows.length + " changed, " + addedRows.length + " added, " + removedIds.length + " removed";
+    }
+}
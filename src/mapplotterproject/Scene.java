@@ -0,0 +1,103 @@
+package mapplotterproject;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Scene class
+ * Immutable description of one frame of the map: the view transform, which layers are shown and the
+ * data to draw. The data is the batch of store changes up to the version to draw, which the renderer
+ * replays on its own copy of the store, so a scene can be rendered on another thread while the store
+ * keeps changing on the EDT.
+ *
+ * Two scenes are equal when they would render the same frame; the data is compared by version.
+ */
+public final class Scene {
+    // Layer flags
+    public static final int NAMES = 1, POINTS = 2, GRID = 4, BOUNDARIES = 8, CLUSTERS = 16, HEATMAP = 32, MAP = 64;
+    private static final Map<String, Integer> LAYER_NAMES = Map.of("map", MAP, "names", NAMES, "points", POINTS,
+            "grid", GRID, "boundaries", BOUNDARIES, "clusters", CLUSTERS, "heatmap", HEATMAP);
+
+    final int width, height, offsetX, offsetY;
+    final double scale;
+    final int layers, gridSize, gridWidth, gridHeight;
+    final StoreChanges data;
+
+    /**
+     * Constructor for Scene
+     * @param width Width of the frame in device pixels
+     * @param height Height of the frame in device pixels
+     * @param offsetX Device x-coordinate of the map origin
+     * @param offsetY Device y-coordinate of the map origin
+     * @param scale Device pixels per map pixel
+     * @param layers Layer flags of the shown layers
+     * @param gridSize Grid cell size in map pixels
+     * @param gridWidth Width of the area the grid covers in map pixels
+     * @param gridHeight Height of the area the grid covers in map pixels
+     * @param data Changes of the store up to the version to draw
+     */
+    Scene(int width, int height, int offsetX, int offsetY, double scale, int layers, int gridSize, int gridWidth, int gridHeight,
+          StoreChanges data) {
+        this.width = width;
+        this.height = height;
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.scale = scale;
+        this.layers = layers;
+        this.gridSize = gridSize;
+        this.gridWidth = gridWidth;
+        this.gridHeight = gridHeight;
+        this.data = data;
+    }
+
+    /**
+     * Parses a comma separated list of layer names such as "map,points,boundaries"
+     * @param names Layer names
+     * @return Layer flags
+     * @throws IllegalArgumentException If a name is not a layer
+     */
+    public static int layersOf(String names) {
+        int layers = 0;
+        for (String name : names.split(",")) {
+            Integer flag = LAYER_NAMES.get(name.trim().toLowerCase(Locale.ROOT));
+            if (flag == null) {
+                throw new IllegalArgumentException("Unknown layer " + name);
+            }
+            layers |= flag;
+        }
+        return layers;
+    }
+
+    /**
+     * Checks whether a layer is shown
+     * @param layer Layer flag
+     * @return True if the layer is shown
+     */
+    public boolean shows(int layer) {
+        return (layers & layer) != 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Scene)) {
+            return false;
+        }
+        Scene other = (Scene) o;
+        return width == other.width && height == other.height && offsetX == other.offsetX && offsetY == other.offsetY
+                && scale == other.scale && layers == other.layers && gridSize == other.gridSize
+                && gridWidth == other.gridWidth && gridHeight == other.gridHeight && data.version == other.data.version;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 31 * width + height;
+        hash = 31 * hash + offsetX;
+        hash = 31 * hash + offsetY;
+        hash = 31 * hash + Double.hashCode(scale);
+        hash = 31 * hash + layers;
+        hash = 31 * hash + gridSize;
+        hash = 31 * hash + gridWidth;
+        hash = 31 * hash + gridHeight;
+        return 31 * hash + data.version;
+    }
+}
@@ -0,0 +1,169 @@
+package mapplotterproject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StoreChanges class
+ * Changes made to a PersonStore up to one of its versions, handed from the thread that owns the store
+ * to replicas owned by other threads, e.g. the render thread. A batch holds the edits made since the
+ * batch before it, in order, or a full copy of the columns after the store was reloaded. Batches are
+ * linked oldest to newest, so a replica that skipped some catches up by walking the chain and an edit
+ * costs the replica as much as the edit itself instead of a copy of the whole store.
+ *
+ * A full copy is also taken once the edits since the last one add up to a quarter of the store, which
+ * bounds both the chain kept alive and the work of a replica starting from scratch.
+ */
+public final class StoreChanges {
+    private static final byte ADD = 0, UPDATE = 1, REMOVE = 2;
+    private static final int MIN_EDITS_BETWEEN_COPIES = 1024;
+
+    // Store version after the batch
+    final int version;
+    // Latest batch with a full copy at or before this one; a replica can start from it
+    private final StoreChanges base;
+    private final PersonStore.Columns columns;
+    private final List<Edit> edits;
+    private volatile StoreChanges next;
+
+    private StoreChanges(int version, StoreChanges base, PersonStore.Columns columns, List<Edit> edits) {
+        this.version = version;
+        this.base = base != null ? base : this;
+        this.columns = columns;
+        this.edits = edits;
+    }
+
+    /**
+     * One add, update or remove, with the values the row had right after it
+     */
+    private static final class Edit {
+        final byte kind;
+        final int row;
+        final String name, address;
+        final int cityId, x, y;
+
+        Edit(byte kind, int row, String name, int cityId, String address, int x, int y) {
+            this.kind = kind;
+            this.row = row;
+            this.name = name;
+            this.cityId = cityId;
+            this.address = address;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /**
+     * Brings a replica from the state of one batch to the state of a later one
+     * @param replica Store to change; only ever changed through this method
+     * @param applied Batch the replica is at, or null if it is empty
+     * @param target Batch to bring it to
+     * @return The target, which the replica is at now
+     */
+    public static StoreChanges catchUp(PersonStore replica, StoreChanges applied, StoreChanges target) {
+        if (applied == target) {
+            return target;
+        }
+        // Start over from a copy if there is none applied yet, or a newer one than what is applied
+        StoreChanges change = applied == null || target.base.version > applied.version || applied.version > target.version
+                ? target.base : applied.next;
+        while (change != null) {
+            change.applyTo(replica);
+            if (change == target) break;
+            change = change.next;
+        }
+        return target;
+    }
+
+    private void applyTo(PersonStore replica) {
+        if (columns != null) {
+            replica.startBulkLoad();
+            replica.restoreColumns(columns.copy());
+            replica.endBulkLoad();
+            return;
+        }
+        for (Edit edit : edits) {
+            switch (edit.kind) {
+                case ADD: replica.add(edit.name, edit.cityId, edit.address, edit.x, edit.y); break;
+                case UPDATE: replica.update(edit.row, edit.name, edit.cityId, edit.address, edit.x, edit.y); break;
+                default: replica.remove(edit.row);
+            }
+        }
+    }
+
+    /**
+     * Records the changes of a store from its events and hands them out in batches.
+     * Must be used on the thread that owns the store.
+     */
+    public static final class Recorder implements PersonStoreListener {
+        private final PersonStore people;
+        private List<Edit> edits = new ArrayList<>();
+        private boolean reloaded = true;
+        private int editsSinceCopy;
+        // Ids are renumbered without events, so a replica only gets the new ones with a full copy
+        private int idGeneration;
+        private StoreChanges latest;
+
+        /**
+         * Constructor for Recorder; starts listening to the store
+         * @param people Store to record
+         */
+        public Recorder(PersonStore people) {
+            this.people = people;
+            people.addPersonStoreListener(this);
+        }
+
+        /**
+         * Gets the batch that brings a replica to the current version of the store
+         * @return The latest batch, or a new one if the store changed since it was made
+         */
+        public StoreChanges current() {
+            if (latest != null && latest.version == people.getVersion()) {
+                return latest;
+            }
+            StoreChanges batch;
+            if (reloaded || idGeneration != people.getIdGeneration()
+                    || editsSinceCopy > Math.max(MIN_EDITS_BETWEEN_COPIES, people.size() / 4)) {
+                batch = new StoreChanges(people.getVersion(), null, people.copyColumns(), null);
+                editsSinceCopy = 0;
+                idGeneration = people.getIdGeneration();
+            } else {
+                batch = new StoreChanges(people.getVersion(), latest.base, null, edits);
+            }
+            edits = new ArrayList<>();
+            reloaded = false;
+            if (latest != null) latest.next = batch;
+            latest = batch;
+            return batch;
+        }
+
+        private void record(byte kind, int row) {
+            if (reloaded) return;  // The next batch copies everything anyway
+            edits.add(kind == REMOVE ? new Edit(kind, row, null, 0, null, 0, 0)
+                    : new Edit(kind, row, people.getName(row), people.getCityId(row), people.getAddress(row),
+                            people.getX(row), people.getY(row)));
+            editsSinceCopy++;
+        }
+
+        @Override
+        public void personAdded(int row) {
+            record(ADD, row);
+        }
+
+        @Override
+        public void personUpdated(int row, int oldX, int oldY) {
+            record(UPDATE, row);
+        }
+
+        @Override
+        public void personRemoved(int row, int oldX, int oldY) {
+            record(REMOVE, row);
+        }
+
+        @Override
+        public void peopleReloaded() {
+            reloaded = true;
+            edits.clear();
+        }
+    }
+}
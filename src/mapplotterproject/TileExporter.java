@@ -0,0 +1,302 @@
+// TileExporter.java
+package mapplotterproject;
+
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * TileExporter class
+ * Command line tool that exports the map as a z/x/y pyramid of 256px PNG tiles for slippy-map viewers.
+ * Zoom levels are powers of two in the map's pixel space: at the native zoom one tile pixel is one map
+ * pixel, and at zoom 0 the whole map fits in one tile. The data is loaded read-only and tiles are drawn
+ * by the application's FrameRenderer on a worker pool, one renderer per worker thread.
+ *
+ * A manifest next to the tiles records a content key per tile: the base map and boundaries, the layers,
+ * and a hash of the points that touch the tile. On the next export only tiles whose key changed are
+ * rendered again, so moving one person rewrites a handful of tiles. Tiles with nothing drawn on them
+ * are not written.
+ *
+ * Usage: TileExporter [--out DIR] [--min-zoom Z] [--max-zoom Z] [--layers map,boundaries,points,grid] [--threads N]
+ * The maximum zoom defaults to two levels past the native zoom.
+ */
+public class TileExporter {
+    public static final int TILE_SIZE = 256;
+    private static final String MANIFEST = "tiles.manifest";
+    private static final String EMPTY = "empty";
+    // Layers whose pixels in a tile depend only on what lies in the tile; names, clusters and the heatmap do not
+    private static final int TILE_LAYERS = Scene.MAP | Scene.BOUNDARIES | Scene.POINTS | Scene.GRID;
+
+    private Path outputDir = Paths.get("tiles");
+    private int minZoom = 0, maxZoom = -1;
+    private int layers = Scene.MAP | Scene.BOUNDARIES | Scene.POINTS;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        TileExporter exporter = new TileExporter();
+        try {
+            exporter.parseArguments(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Usage: TileExporter [--out DIR] [--min-zoom Z] [--max-zoom Z] [--layers map,boundaries,points,grid] [--threads N]");
+            System.exit(2);
+        }
+        try {
+            exporter.run();
+        } catch (IOException | ExecutionException | InvocationTargetException e) {
+            System.out.println("Error exporting tiles.");
+            e.printStackTrace();
+            System.exit(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Reads the command line options
+     * @param args Command line arguments
+     * @throws IllegalArgumentException If an option is unknown or malformed
+     */
+    private void parseArguments(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option);
+            }
+            String value = args[++i];
+            try {
+                switch (option) {
+                    case "--out" -> outputDir = Paths.get(value);
+                    case "--min-zoom" -> minZoom = Math.max(0, Integer.parseInt(value));
+                    case "--max-zoom" -> maxZoom = Integer.parseInt(value);
+                    case "--layers" -> {
+                        layers = Scene.layersOf(value);
+                        if ((layers & ~TILE_LAYERS) != 0) {
+                            throw new IllegalArgumentException("Tiles can only show map, boundaries, points and grid");
+                        }
+                    }
+                    case "--threads" -> threads = Math.max(1, Integer.parseInt(value));
+                    default -> throw new IllegalArgumentException("Unknown option " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed value for " + option + ": " + value);
+            }
+        }
+    }
+
+    /**
+     * Loads the map, renders the tiles whose content changed and writes the new manifest
+     */
+    private void run() throws IOException, InterruptedException, ExecutionException, InvocationTargetException {
+        long start = System.nanoTime();
+        MapPlotter[] holder = new MapPlotter[1];
+        Scene[] data = new Scene[1];
+        PersonStore.Columns[] people = new PersonStore.Columns[1];
+        String[] baseKey = new String[1];
+        IOException[] failure = new IOException[1];
+        // The plotter is built and read on the EDT like in the application, but read-only, so exporting
+        // never changes the roster files of an application that may be running
+        SwingUtilities.invokeAndWait(() -> {
+            holder[0] = MapPlotter.openReadOnly();
+            data[0] = holder[0].sceneAt(TILE_SIZE, TILE_SIZE, 0, 0, 1, layers);
+            people[0] = holder[0].currentData();
+            try {
+                baseKey[0] = holder[0].baseLayersKey();
+            } catch (IOException e) {
+                failure[0] = e;
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        MapPlotter plotter = holder[0];
+        Dimension mapSize = plotter.getMapSize();
+        int nativeZoom = 0;
+        while ((Math.max(mapSize.width, mapSize.height) >> nativeZoom) > TILE_SIZE) {
+            nativeZoom++;
+        }
+        int lastZoom = maxZoom >= 0 ? maxZoom : nativeZoom + 2;
+        long contentSeed = mix(PlacementCache.seedOf(baseKey[0] + ";layers=" + layers + ";grid=" + data[0].gridSize));
+
+        Map<String, String> previous = readManifest();
+        Map<String, String> manifest = new TreeMap<>();
+        FrameStats stats = new FrameStats();
+        // Workers keep their own renderer but draw the base map from one tile cache
+        TiledImage mapTiles = plotter.createMapTiles();
+        ThreadLocal<FrameRenderer> renderers = ThreadLocal.withInitial(() -> plotter.createRenderer(mapTiles, stats));
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        Map<String, Future<Boolean>> renders = new HashMap<>();
+        Map<String, String> keys = new HashMap<>();
+        int unchanged = 0, skipped = 0;
+
+        for (int zoom = minZoom; zoom <= lastZoom; zoom++) {
+            double scale = Math.pow(2, zoom - nativeZoom);
+            int columns = (int) Math.ceil(mapSize.width * scale / TILE_SIZE);
+            int rows = (int) Math.ceil(mapSize.height * scale / TILE_SIZE);
+            Map<Long, Long> pointHashes = hashPoints(people[0], scale, columns, rows);
+
+            for (int ty = 0; ty < rows; ty++) {
+                for (int tx = 0; tx < columns; tx++) {
+                    String tile = zoom + "/" + tx + "/" + ty;
+                    Long points = pointHashes.get(((long) tx << 32) | ty);
+                    String key = Long.toHexString(mix(contentSeed + zoom) ^ (points != null ? points : 0));
+                    String old = previous.get(tile);
+                    if (old != null && old.split(" ")[0].equals(key) && (old.endsWith(EMPTY) || Files.exists(tilePath(tile)))) {
+                        manifest.put(tile, old);
+                        unchanged++;
+                    } else if (points == null && layers == Scene.POINTS) {
+                        // Nothing can be drawn on a points-only tile without points
+                        Files.deleteIfExists(tilePath(tile));
+                        manifest.put(tile, key + " " + EMPTY);
+                        skipped++;
+                    } else {
+                        Scene scene = plotter.sceneAt(TILE_SIZE, TILE_SIZE, -tx * TILE_SIZE, -ty * TILE_SIZE, scale, layers);
+                        keys.put(tile, key);
+                        renders.put(tile, workers.submit(() -> renderTile(renderers.get(), scene, tilePath(tile))));
+                    }
+                }
+            }
+        }
+
+        int written = 0;
+        for (Map.Entry<String, Future<Boolean>> render : renders.entrySet()) {
+            boolean drawn = render.getValue().get();
+            String key = keys.get(render.getKey());
+            manifest.put(render.getKey(), drawn ? key : key + " " + EMPTY);
+            if (drawn) written++; else skipped++;
+        }
+        workers.shutdown();
+        // Tiles of zoom levels that are no longer exported are removed
+        for (String tile : previous.keySet()) {
+            if (!manifest.containsKey(tile)) {
+                Files.deleteIfExists(tilePath(tile));
+            }
+        }
+        writeManifest(manifest);
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Exported zoom %d-%d to %s in %.2f s on %d threads: %d written, %d unchanged, %d empty (%.1f tiles/s rendered)%n",
+                minZoom, lastZoom, outputDir, seconds, threads, written, unchanged, skipped, renders.size() / seconds);
+    }
+
+    /**
+     * Hashes the points each tile shows, independent of the order of the people
+     * @param data People to hash
+     * @param scale Tile pixels per map pixel
+     * @param columns Tile columns at this zoom
+     * @param rows Tile rows at this zoom
+     * @return Hash per tile, keyed by column in the upper and row in the lower 32 bits; tiles without points are missing
+     */
+    private static Map<Long, Long> hashPoints(PersonStore.Columns data, double scale, int columns, int rows) {
+        Map<Long, Long> hashes = new HashMap<>();
+        for (int row = 0; row < data.size; row++) {
+            int x = data.x[row], y = data.y[row];
+            if (x == PersonStore.UNPLACED) continue;
+            long pointHash = mix(((long) x << 32) | (y & 0xFFFFFFFFL));
+            // A point's oval covers 5 map pixels up and left of it, plus a pixel of rounding either way
+            int firstColumn = Math.max(0, (int) Math.floor(((x - 5) * scale - 1) / TILE_SIZE));
+            int lastColumn = Math.min(columns - 1, (int) Math.floor((x * scale + 1) / TILE_SIZE));
+            int firstRow = Math.max(0, (int) Math.floor(((y - 5) * scale - 1) / TILE_SIZE));
+            int lastRow = Math.min(rows - 1, (int) Math.floor((y * scale + 1) / TILE_SIZE));
+            for (int ty = firstRow; ty <= lastRow; ty++) {
+                for (int tx = firstColumn; tx <= lastColumn; tx++) {
+                    hashes.merge(((long) tx << 32) | ty, pointHash, Long::sum);
+                }
+            }
+        }
+        return hashes;
+    }
+
+    /**
+     * Renders a tile and writes it unless it is fully transparent
+     * @return True if the tile was written
+     */
+    private static boolean renderTile(FrameRenderer renderer, Scene scene, Path path) throws IOException {
+        BufferedImage image = renderer.renderImage(scene, null);
+        if (isEmpty(image)) {
+            Files.deleteIfExists(path);
+            return false;
+        }
+        Files.createDirectories(path.getParent());
+        ImageIO.write(image, "png", path.toFile());
+        return true;
+    }
+
+    private static boolean isEmpty(BufferedImage image) {
+        int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        for (int pixel : pixels) {
+            if ((pixel >>> 24) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Path tilePath(String tile) {
+        return outputDir.resolve(tile + ".png");
+    }
+
+    /**
+     * Reads the manifest of the previous export
+     * @return Content key, and whether the tile was empty, per tile; empty if there was no export
+     */
+    private Map<String, String> readManifest() throws IOException {
+        Map<String, String> manifest = new HashMap<>();
+        Path path = outputDir.resolve(MANIFEST);
+        if (!Files.exists(path)) {
+            return manifest;
+        }
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            int space = line.indexOf(' ');
+            if (space > 0) {
+                manifest.put(line.substring(0, space), line.substring(space + 1));
+            }
+        }
+        return manifest;
+    }
+
+    /**
+     * Replaces the manifest atomically, so an interrupted export never leaves a manifest that claims
+     * tiles it did not write
+     */
+    private void writeManifest(Map<String, String> manifest) throws IOException {
+        Files.createDirectories(outputDir);
+        Path path = outputDir.resolve(MANIFEST);
+        Path temp = outputDir.resolve(MANIFEST + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, String> entry : manifest.entrySet()) {
+                writer.write(entry.getKey() + " " + entry.getValue());
+                writer.newLine();
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Scrambles the bits of a value (the SplitMix64 finalizer), so sums of hashes do not cancel out
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
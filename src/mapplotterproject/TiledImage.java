@@ -0,0 +1,190 @@
+package mapplotterproject;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * TiledImage class
+ * Tile pyramid over a large image. Level 0 is the source at full resolution and every further level
+ * halves it, down to a single tile. Tiles are 256px squares that are built lazily the first time they
+ * are drawn: level 0 tiles are cut from the source, higher levels are downsampled from the four tiles
+ * below them. Built tiles are kept in an LRU cache bounded by a memory budget.
+ * One pyramid can be drawn from several threads at once: the cache is guarded by the instance lock,
+ * and a tile is never changed after it is built, so an evicted tile stays valid for whoever drew it.
+ */
+public class TiledImage {
+    public static final int TILE_SIZE = 256;
+
+    private final BufferedImage source;
+    private final int levels;
+    private final long memoryBudget;
+    // Guarded by this
+    private long memoryUsed;
+
+    // Tiles by key, least recently drawn first
+    private final LinkedHashMap<Long, BufferedImage> cache = new LinkedHashMap<>(64, 0.75f, true);
+
+    /**
+     * Constructor for TiledImage
+     * @param source Full resolution image
+     * @param memoryBudget Bytes of tile images to keep cached
+     */
+    public TiledImage(BufferedImage source, long memoryBudget) {
+        this.source = source;
+        this.memoryBudget = memoryBudget;
+        int level = 0;
+        while ((Math.max(source.getWidth(), source.getHeight()) >> level) > TILE_SIZE) {
+            level++;
+        }
+        this.levels = level + 1;
+    }
+
+    /**
+     * Draws the tiles that cover the clip area of a graphics context in image coordinates.
+     * The level is the coarsest one that still has at least one image pixel per device pixel.
+     * @param g Graphics transformed so that user space is the image's pixel space
+     * @param scale Device pixels per image pixel
+     */
+    public void draw(Graphics2D g, double scale) {
+        int level = levelFor(scale);
+        int span = TILE_SIZE << level;  // Image pixels covered by one tile at this level
+
+        Rectangle clip = g.getClipBounds();
+        Rectangle area = new Rectangle(0, 0, source.getWidth(), source.getHeight());
+        if (clip != null) {
+            area = area.intersection(clip);
+        }
+        if (area.isEmpty()) {
+            return;
+        }
+        int firstX = area.x / span, lastX = (area.x + area.width - 1) / span;
+        int firstY = area.y / span, lastY = (area.y + area.height - 1) / span;
+        for (int ty = firstY; ty <= lastY; ty++) {
+            for (int tx = firstX; tx <= lastX; tx++) {
+                BufferedImage tile = getTile(level, tx, ty);
+                // Edge tiles are smaller than TILE_SIZE; scale them by the same factor as full tiles
+                g.drawImage(tile, tx * span, ty * span, tile.getWidth() << level, tile.getHeight() << level, null);
+            }
+        }
+    }
+
+    /**
+     * Picks the pyramid level for a zoom scale
+     * @param scale Device pixels per image pixel
+     * @return Level between 0 and the coarsest level
+     */
+    public int levelFor(double scale) {
+        int level = 0;
+        while (level + 1 < levels && scale * (1 << (level + 1)) <= 1) {
+            level++;
+        }
+        return level;
+    }
+
+    /**
+     * Gets a tile, building and caching it if necessary
+     * @param level Pyramid level
+     * @param tx Tile column
+     * @param ty Tile row
+     * @return Tile image; tiles on the right and bottom edge may be smaller than TILE_SIZE
+     */
+    synchronized BufferedImage getTile(int level, int tx, int ty) {
+        long key = ((long) level << 56) | ((long) tx << 28) | ty;
+        BufferedImage tile = cache.get(key);
+        if (tile == null) {
+            tile = level == 0 ? cutTile(tx, ty) : downsampleTile(level, tx, ty);
+            cache.put(key, tile);
+            memoryUsed += bytesOf(tile);
+            evict();
+        }
+        return tile;
+    }
+
+    /**
+     * Copies a level 0 tile out of the source image
+     */
+    private BufferedImage cutTile(int tx, int ty) {
+        int x = tx * TILE_SIZE, y = ty * TILE_SIZE;
+        int width = Math.min(TILE_SIZE, source.getWidth() - x), height = Math.min(TILE_SIZE, source.getHeight() - y);
+        BufferedImage tile = createTile(width, height);
+        Graphics2D g = tile.createGraphics();
+        g.drawImage(source, 0, 0, width, height, x, y, x + width, y + height, null);
+        g.dispose();
+        return tile;
+    }
+
+    /**
+     * Builds a tile by halving the up to four tiles it covers on the level below
+     */
+    private BufferedImage downsampleTile(int level, int tx, int ty) {
+        int width = Math.min(TILE_SIZE, ceilShift(source.getWidth(), level) - tx * TILE_SIZE);
+        int height = Math.min(TILE_SIZE, ceilShift(source.getHeight(), level) - ty * TILE_SIZE);
+        BufferedImage tile = createTile(width, height);
+        Graphics2D g = tile.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        int childColumns = ceilDiv(ceilShift(source.getWidth(), level - 1), TILE_SIZE);
+        int childRows = ceilDiv(ceilShift(source.getHeight(), level - 1), TILE_SIZE);
+        for (int dy = 0; dy < 2; dy++) {
+            for (int dx = 0; dx < 2; dx++) {
+                int cx = tx * 2 + dx, cy = ty * 2 + dy;
+                if (cx >= childColumns || cy >= childRows) continue;
+                BufferedImage child = getTile(level - 1, cx, cy);
+                g.drawImage(child, dx * TILE_SIZE / 2, dy * TILE_SIZE / 2,
+                        (child.getWidth() + 1) / 2, (child.getHeight() + 1) / 2, null);
+            }
+        }
+        g.dispose();
+        return tile;
+    }
+
+    private BufferedImage createTile(int width, int height) {
+        GraphicsConfiguration config = GraphicsEnvironment.isHeadless() ? null
+                : GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration();
+        if (config != null) {
+            return config.createCompatibleImage(width, height, source.getColorModel().getTransparency());
+        }
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    }
+
+    /**
+     * Drops least recently drawn tiles until the cache fits its budget
+     */
+    private void evict() {
+        Iterator<Map.Entry<Long, BufferedImage>> eldest = cache.entrySet().iterator();
+        while (memoryUsed > memoryBudget && cache.size() > 1 && eldest.hasNext()) {
+            memoryUsed -= bytesOf(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long bytesOf(BufferedImage tile) {
+        return (long) tile.getWidth() * tile.getHeight() * 4;
+    }
+
+    private static int ceilShift(int value, int shift) {
+        return (value + (1 << shift) - 1) >> shift;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * Getter for the number of pyramid levels
+     * @return Levels, including the full resolution level 0
+     */
+    public int getLevelCount() {
+        return levels;
+    }
+
+    /**
+     * Getter for the number of cached tiles
+     * @return Tiles currently in the cache
+     */
+    public synchronized int getCachedTileCount() {
+        return cache.size();
+    }
+}